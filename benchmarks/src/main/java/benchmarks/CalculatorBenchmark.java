@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.CellStates;
+import utils.RegniereBentzMPBCalculator;
+
+/** Cell-days per microsecond for the scalar and batch state updates. <br>
+ *  Both use the same winter day of a synthetic 256 x 256 tile. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculatorBenchmark {
+
+	static final int N_COL = 256, N_ROW = 256, N_CELLS = N_COL * N_ROW;
+
+	LocalDate today = LocalDate.of(1990, 1, 20);
+	float[] tmin = new float[N_CELLS], tmax = new float[N_CELLS];
+	double[] temps = new double[2];
+	double[] state = new double[4];
+	CellStates states = new CellStates(N_CELLS);
+	int cell;
+
+	@Setup
+	public void setup()
+	{
+		SyntheticDaymet.InMemoryCube cube = new SyntheticDaymet.InMemoryCube(today.getYear(), N_COL, N_ROW);
+		cube.getMinOnDate(today, tmin);
+		cube.getMaxOnDate(today, tmax);
+	}
+
+	/** One cell-day through the original per-cell entry point. */
+	@Benchmark
+	public double[] updateState()
+	{
+		cell = (cell + 1) % N_CELLS;
+		temps[0] = tmin[cell];
+		temps[1] = tmax[cell];
+		return RegniereBentzMPBCalculator.updateState(temps, today, state);
+	}
+
+	/** A whole layer through the batch entry point, reported per cell-day. */
+	@Benchmark
+	@OperationsPerInvocation(N_CELLS)
+	public CellStates updateStates()
+	{
+		RegniereBentzMPBCalculator.updateStates(tmin, tmax, 0, RegniereBentzMPBCalculator.gainOnly(today),
+				RegniereBentzMPBCalculator.MISSING_DATA, states);
+		return states;
+	}
+}
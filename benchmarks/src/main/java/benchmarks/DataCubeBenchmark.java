@@ -0,0 +1,109 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.DataCubeDaymet;
+
+/** Adding survival layers to a DataCubeDaymet and writing out a whole run. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataCubeBenchmark {
+
+	static final int TILE = 1, START_YEAR = 1980, END_YEAR = 2016;
+	static final int N_YEARS = END_YEAR - START_YEAR + 1;
+
+	/** Cells along each side of the tile. */
+	@Param({"128", "256"})
+	int gridSize;
+
+	File directory;
+	String template, output;
+	double[][] layer;
+
+	DataCubeDaymet cube;
+	int nextLayer;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Files.createTempDirectory("datacube-benchmark").toFile();
+		SyntheticDaymet.writeTile(directory, TILE, START_YEAR, gridSize, gridSize);
+		template = new File(directory, TILE + "_" + START_YEAR + "_tmin.nc").getPath();
+		output = new File(directory, "output.nc").getPath();
+
+		layer = new double[gridSize][gridSize];
+		for (int col = 0; col < gridSize; col++) for (int row = 0; row < gridSize; row++)
+			layer[col][row] = SyntheticDaymet.isMissing(col, row) ? Double.NaN : (col + row) / (2d * gridSize);
+
+		cube = new DataCubeDaymet();
+		cube.initialize(template, output, START_YEAR, END_YEAR);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException { FileUtils.deleteDirectory(directory); }
+
+	/** Copy one layer into the in-memory output cube. */
+	@Benchmark
+	public DataCubeDaymet addDataLayer()
+	{
+		cube.addDataLayer(nextLayer, layer);
+		nextLayer = (nextLayer + 1) % N_YEARS;
+		return cube;
+	}
+
+	/** A cube with every year's layer added, ready to be written. */
+	@State(Scope.Thread)
+	public static class FullCube {
+
+		DataCubeDaymet cube;
+
+		@Setup(Level.Invocation)
+		public void fill(DataCubeBenchmark benchmark)
+		{
+			cube = new DataCubeDaymet();
+			cube.initialize(benchmark.template, benchmark.output, START_YEAR, END_YEAR);
+			for (int i = 0; i < N_YEARS; i++) cube.addDataLayer(i, benchmark.layer);
+		}
+	}
+
+	/** Write a whole run's output file. */
+	@Benchmark
+	public DataCubeDaymet writeOutputFile(FullCube full)
+	{
+		full.cube.writeOutputFile();
+		return full.cube;
+	}
+
+	/** Set up, stream every layer to disk and close, as a streaming run does. */
+	@Benchmark
+	public DataCubeDaymet streamOutputFile()
+	{
+		DataCubeDaymet streaming = new DataCubeDaymet(true);
+		streaming.initialize(template, output, START_YEAR, END_YEAR);
+		for (int i = 0; i < N_YEARS; i++) streaming.addDataLayer(i, layer);
+		streaming.writeOutputFile();
+		return streaming;
+	}
+}
@@ -0,0 +1,28 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks with the GC profiler, so allocation rates are reported
+ *  alongside throughput, and saves the results to jmh-result.json. <br>
+ *  Takes the usual JMH command line options, e.g. a regular expression to
+ *  select benchmarks, or -p gridSize=256 to fix a parameter.
+ *
+ * @author michaelfrancenelson */
+public class RunBenchmarks {
+
+	public static void main(String[] args) throws Exception
+	{
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-result.json")
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,140 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Random;
+
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import utils.ActiveCells;
+import utils.TemperatureCube;
+
+/** Made up Daymet-like temperatures: a seasonal cycle plus noise, with a
+ *  stripe of missing cells, in memory or written out as tile files. */
+public class SyntheticDaymet {
+
+	public static final int N_DAYS = 365;
+
+	/** A cell is missing in every (col * 3 + row) % 13 == 0 position. */
+	public static boolean isMissing(int col, int row) { return (col * 3 + row) % 13 == 0; }
+
+	/** @return {tmin, tmax}, each a year of flat layers indexed col * nRow + row */
+	public static float[][] temperatures(int year, int nCol, int nRow)
+	{
+		Random random = new Random(year);
+		int nCells = nCol * nRow;
+		float[] tmin = new float[N_DAYS * nCells];
+		float[] tmax = new float[N_DAYS * nCells];
+		for (int day = 0; day < N_DAYS; day++)
+		{
+			double season = -15 * Math.cos(2 * Math.PI * (day - 15) / N_DAYS) + 5;
+			for (int col = 0; col < nCol; col++) for (int row = 0; row < nRow; row++)
+			{
+				int i = day * nCells + col * nRow + row;
+				float low = (float) (season - 5 + random.nextGaussian() * 8 - col * 0.05);
+				tmin[i] = isMissing(col, row) ? -9999f : low;
+				tmax[i] = isMissing(col, row) ? -9999f : low + (float) (random.nextDouble() * 15);
+			}
+		}
+		return new float[][] {tmin, tmax};
+	}
+
+	/** The cells that are not missing. */
+	public static ActiveCells activeCells(int nCol, int nRow)
+	{
+		BitSet valid = new BitSet(nCol * nRow);
+		for (int col = 0; col < nCol; col++) for (int row = 0; row < nRow; row++)
+			if (!isMissing(col, row)) valid.set(col * nRow + row);
+		return new ActiveCells(nCol, nRow, valid);
+	}
+
+	/** Write {tile}_{year}_tmin.nc and {tile}_{year}_tmax.nc, laid out like Daymet tiles. */
+	public static void writeTile(File directory, int tile, int year, int nCol, int nRow) throws IOException
+	{
+		float[][] temps = temperatures(year, nCol, nRow);
+		String[] names = new String[] {"tmin", "tmax"};
+		for (int v = 0; v < 2; v++)
+		{
+			NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+					new File(directory, tile + "_" + year + "_" + names[v] + ".nc").getPath());
+			writer.addDimension(null, "time", N_DAYS);
+			writer.addDimension(null, "y", nCol);
+			writer.addDimension(null, "x", nRow);
+			Variable x = writer.addVariable(null, "x", DataType.DOUBLE, "x");
+			Variable y = writer.addVariable(null, "y", DataType.DOUBLE, "y");
+			Variable lat = writer.addVariable(null, "lat", DataType.DOUBLE, "y x");
+			Variable lon = writer.addVariable(null, "lon", DataType.DOUBLE, "y x");
+			Variable conic = writer.addVariable(null, "lambert_conformal_conic", DataType.SHORT, "");
+			conic.addAttribute(new Attribute("grid_mapping_name", "lambert_conformal_conic"));
+			Variable data = writer.addVariable(null, names[v], DataType.FLOAT, "time y x");
+			writer.create();
+
+			ArrayDouble.D1 xArray = new ArrayDouble.D1(nRow), yArray = new ArrayDouble.D1(nCol);
+			ArrayDouble.D2 latArray = new ArrayDouble.D2(nCol, nRow), lonArray = new ArrayDouble.D2(nCol, nRow);
+			for (int row = 0; row < nRow; row++) xArray.set(row, -1000000 + 1000 * row);
+			for (int col = 0; col < nCol; col++) yArray.set(col, 500000 - 1000 * col);
+			for (int col = 0; col < nCol; col++) for (int row = 0; row < nRow; row++)
+			{
+				latArray.set(col, row, 45 - col / 111.0);
+				lonArray.set(col, row, -110 + row / 80.0);
+			}
+			try {
+				writer.write(x, xArray);
+				writer.write(y, yArray);
+				writer.write(lat, latArray);
+				writer.write(lon, lonArray);
+				writer.write(conic, Array.factory(DataType.SHORT, new int[0]));
+				writer.write(data, Array.factory(DataType.FLOAT, new int[] {N_DAYS, nCol, nRow}, temps[v]));
+			} catch (InvalidRangeException e) {
+				throw new IllegalStateException(e);
+			}
+			writer.close();
+		}
+	}
+
+	/** A year of synthetic temperatures held in memory. */
+	public static class InMemoryCube implements TemperatureCube {
+
+		private final LocalDate startDate;
+		private final int nCol, nRow;
+		private final float[] tmin, tmax;
+
+		public InMemoryCube(int year, int nCol, int nRow)
+		{
+			float[][] temps = temperatures(year, nCol, nRow);
+			startDate = LocalDate.of(year, 1, 1);
+			this.nCol = nCol; this.nRow = nRow;
+			tmin = temps[0]; tmax = temps[1];
+		}
+
+		private int offset(LocalDate date) { return (int) ChronoUnit.DAYS.between(startDate, date) * nCol * nRow; }
+
+		@Override
+		public void getMaxOnDate(LocalDate date, float[] dest) { System.arraycopy(tmax, offset(date), dest, 0, nCol * nRow); }
+
+		@Override
+		public void getMinOnDate(LocalDate date, float[] dest) { System.arraycopy(tmin, offset(date), dest, 0, nCol * nRow); }
+
+		@Override
+		public FloatBuffer getMaxLayer(LocalDate date) { return FloatBuffer.wrap(tmax, offset(date), nCol * nRow).slice().asReadOnlyBuffer(); }
+
+		@Override
+		public FloatBuffer getMinLayer(LocalDate date) { return FloatBuffer.wrap(tmin, offset(date), nCol * nRow).slice().asReadOnlyBuffer(); }
+
+		@Override
+		public int getNrows() { return nRow; }
+
+		@Override
+		public int getNcols() { return nCol; }
+	}
+}
@@ -0,0 +1,99 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.TemperatureCube;
+import utils.TemperatureCubeDaymet;
+import utils.TemperatureCubeDaymetStream;
+
+/** Reading a year of a synthetic NetCDF tile, and pulling day layers out of it. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemperatureCubeBenchmark {
+
+	static final int TILE = 1, YEAR = 1990;
+
+	/** Cells along each side of the tile. */
+	@Param({"128", "256"})
+	int gridSize;
+
+	File directory;
+	String minFile, maxFile;
+	TemperatureCube cube;
+	float[] layer;
+	LocalDate date;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Files.createTempDirectory("temperature-benchmark").toFile();
+		SyntheticDaymet.writeTile(directory, TILE, YEAR, gridSize, gridSize);
+		minFile = new File(directory, TILE + "_" + YEAR + "_tmin.nc").getPath();
+		maxFile = new File(directory, TILE + "_" + YEAR + "_tmax.nc").getPath();
+		cube = new TemperatureCubeDaymet(minFile, maxFile, YEAR);
+		layer = new float[gridSize * gridSize];
+		date = LocalDate.of(YEAR, 1, 1);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException { FileUtils.deleteDirectory(directory); }
+
+	private LocalDate nextDate()
+	{
+		date = date.plusDays(1);
+		if (date.getDayOfYear() >= SyntheticDaymet.N_DAYS) date = LocalDate.of(YEAR, 1, 1);
+		return date;
+	}
+
+	/** Open and decode both files of a year. */
+	@Benchmark
+	public TemperatureCube load() { return new TemperatureCubeDaymet(minFile, maxFile, YEAR); }
+
+	/** Read every day of a year through the streaming cube. */
+	@Benchmark
+	public float[] streamYear() throws IOException
+	{
+		try (TemperatureCube stream = new TemperatureCubeDaymetStream(minFile, maxFile, YEAR)) {
+			for (LocalDate d = LocalDate.of(YEAR, 1, 1); d.getDayOfYear() < SyntheticDaymet.N_DAYS; d = d.plusDays(1))
+			{
+				stream.getMinOnDate(d, layer);
+				stream.getMaxOnDate(d, layer);
+			}
+		}
+		return layer;
+	}
+
+	/** The allocating double[][] getter. */
+	@Benchmark
+	public double[][] getMinOnDate() { return cube.getMinOnDate(nextDate()); }
+
+	/** The getter filling a caller's buffer. */
+	@Benchmark
+	public float[] getMinOnDateBuffer()
+	{
+		cube.getMinOnDate(nextDate(), layer);
+		return layer;
+	}
+}
@@ -0,0 +1,161 @@
+package main;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.SyntheticDaymet;
+import utils.CellSeries;
+import utils.CellStates;
+import utils.RegniereBentzMPBCalculator;
+
+/** Years per second of the day-major and cell-major engines over synthetic in-memory grids. <br>
+ *  stepYear runs the whole of ModelRunner.stepYear, including copying the layers or rearranging
+ *  the year. The kernel benchmarks update the cells from temperatures already laid out for them,
+ *  so they read the same temperatures and differ only in how often each cell's state goes
+ *  through memory: 364 times a year day-major, once per block cell-major. Any gap shows at large
+ *  grids, where the states no longer fit in cache. <br>
+ *  The kernel also reports, through {@link Traffic}, the bytes of state and temperatures it moves,
+ *  as rates next to its own. stateSweep moves exactly the kernel's state traffic with none of the
+ *  model's arithmetic, so its time is what that traffic costs: the most cell-major can save.
+ *  Where the PMU is available, -prof perfnorm gives the measured cache misses per op alongside.
+ *
+ * @author michaelfrancenelson */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CellMajorBenchmark {
+
+	static final int YEAR = 1990;
+
+	/** Cells along each side of the grid. */
+	@Param({"64", "256", "512"})
+	int gridSize;
+
+	@Param({"false", "true"})
+	boolean cellMajor;
+
+	ModelRunner runner;
+
+	/* Each day's layers for the day-major kernel, or the year in blocks for the cell-major one. */
+	float[][] minLayers, maxLayers;
+	boolean[] gainOnly;
+	int[] offsets;
+	int nDays;
+
+	CellSeries series;
+	CellStates states;
+
+	/** Bytes through memory per kernel op, reported as rates. State bytes assume the states do
+	 *  not stay in L2 between passes: at grid 512 they are 16 MB. */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Traffic {
+		/** Cell states read and written, 4 doubles each way per pass over a cell. */
+		public long stateBytes;
+		/** Temperatures read, a float each of tmin and tmax per cell-day. */
+		public long temperatureBytes;
+
+		@Setup(Level.Iteration)
+		public void clear() { stateBytes = temperatureBytes = 0; }
+	}
+
+	@Setup
+	public void setup()
+	{
+		runner = new ModelRunner();
+		runner.activeCells = SyntheticDaymet.activeCells(gridSize, gridSize);
+		runner.temperatures = new SyntheticDaymet.InMemoryCube(YEAR, gridSize, gridSize);
+		runner.cellMajor = cellMajor;
+		runner.createCells();
+
+		states = new CellStates(runner.activeCells.size());
+		if (cellMajor)
+		{
+			series = new CellSeries(runner.temperatures, runner.activeCells, YEAR, 1);
+			return;
+		}
+
+		nDays = LocalDate.of(YEAR, 1, 1).lengthOfYear() - 1;
+		minLayers = new float[nDays][gridSize * gridSize];
+		maxLayers = new float[nDays][gridSize * gridSize];
+		gainOnly = new boolean[nDays];
+		for (int day = 0; day < nDays; day++)
+		{
+			LocalDate date = LocalDate.ofYearDay(YEAR, day + 1);
+			runner.temperatures.getMinOnDate(date, minLayers[day]);
+			runner.temperatures.getMaxOnDate(date, maxLayers[day]);
+			gainOnly[day] = RegniereBentzMPBCalculator.gainOnly(date);
+		}
+		offsets = runner.activeCells.getOffsets();
+	}
+
+	@Benchmark
+	public double[][] stepYear()
+	{
+		return runner.stepYear(YEAR, 0, 1, 150);
+	}
+
+	/** Days per year, and passes over the states per year. */
+	int days() { return cellMajor ? series.nDays : nDays; }
+
+	int passes() { return cellMajor ? 1 : nDays; }
+
+	@Benchmark
+	public CellStates kernel(Traffic traffic)
+	{
+		long nCells = states.size();
+		traffic.stateBytes += passes() * nCells * 4 * 8 * 2;
+		traffic.temperatureBytes += days() * nCells * 2 * 4;
+		states.reset();
+		if (cellMajor)
+			RegniereBentzMPBCalculator.updateSeries(series, 0, series.nDays, 0, RegniereBentzMPBCalculator.MISSING_DATA, states);
+		else for (int day = 0; day < nDays; day++)
+			RegniereBentzMPBCalculator.updateStates(minLayers[day], maxLayers[day], offsets, 0, gainOnly[day],
+					RegniereBentzMPBCalculator.MISSING_DATA,
+					states.coldHardening, states.gain, states.loss, states.survival);
+		return states;
+	}
+
+	/** The kernel's state traffic alone: each day touches every state as the kernel does, day-major
+	 *  once per day over the whole grid, cell-major one block at a time. */
+	@Benchmark
+	public CellStates stateSweep()
+	{
+		states.reset();
+		double[] c = states.coldHardening, g = states.gain, l = states.loss, s = states.survival;
+		int nCells = c.length, nDays = days();
+		int block = cellMajor ? CellSeries.BLOCK_CELLS : nCells;
+		for (int first = 0; first < nCells; first += block)
+		{
+			int last = Math.min(nCells, first + block);
+			for (int day = 0; day < nDays; day++)
+				for (int cell = first; cell < last; cell++)
+				{
+					/* Settles at a small constant, so no denormals. */
+					double x = c[cell] + g[cell] - l[cell] + 1e-3;
+					c[cell] = x * 0.5;
+					g[cell] = x * 0.25;
+					l[cell] = x * 0.125;
+					s[cell] = Math.min(s[cell], x);
+				}
+		}
+		return states;
+	}
+}
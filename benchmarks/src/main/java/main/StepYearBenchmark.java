@@ -0,0 +1,51 @@
+package main;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.SyntheticDaymet;
+
+/** Years per second of ModelRunner.stepYear over synthetic in-memory grids. <br>
+ *  In package main to reach the runner's package-private active cells and temperatures. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StepYearBenchmark {
+
+	static final int YEAR = 1990;
+
+	/** Cells along each side of the grid. */
+	@Param({"64", "256", "512"})
+	int gridSize;
+
+	ModelRunner runner;
+
+	@Setup
+	public void setup()
+	{
+		runner = new ModelRunner();
+		runner.activeCells = SyntheticDaymet.activeCells(gridSize, gridSize);
+		runner.temperatures = new SyntheticDaymet.InMemoryCube(YEAR, gridSize, gridSize);
+		runner.createCells();
+	}
+
+	@Benchmark
+	public double[][] stepYear()
+	{
+		return runner.stepYear(YEAR, 0, 1, 150);
+	}
+}
@@ -0,0 +1,49 @@
+package main;
+
+import java.time.LocalDate;
+
+import utils.ActiveCells;
+import utils.DataCube;
+import utils.TemperatureCube;
+
+/** Each cell's lowest daily minimum temperature of the year, as {@link DaymetMinTemps#getAnnualMin} gives it. <br>
+ *  Daymet files hold 365 days, so in leap years December 31 is not included.
+ *
+ * @author michaelfrancenelson */
+public class AnnualMinReducer implements DailyReducer {
+
+	private final DataCube output;
+	private final ActiveCells cells;
+	private final int startYear;
+	private float[] current_min;
+
+	/** @param output initialized cube with one layer per year, starting with startYear */
+	public AnnualMinReducer(DataCube output, ActiveCells cells, int startYear)
+	{
+		this.output = output;
+		this.cells = cells;
+		this.startYear = startYear;
+		current_min = new float[cells.getNcols() * cells.getNrows()];
+	}
+
+	@Override
+	public void beginYear(int year, TemperatureCube temperatures) {}
+
+	@Override
+	public void accept(LocalDate date, float[] minTemps, float[] maxTemps)
+	{
+		if (date.getDayOfYear() == 1)
+			System.arraycopy(minTemps, 0, current_min, 0, current_min.length);
+		else for (int offset : cells.getOffsets())
+			current_min[offset] = Math.min(current_min[offset], minTemps[offset]);
+	}
+
+	@Override
+	public void endYear(int year)
+	{
+		output.addDataLayer(year - startYear, cells.toGrid(current_min, new double[cells.getNcols()][cells.getNrows()]));
+	}
+
+	@Override
+	public void finish() { output.writeOutputFile(); }
+}
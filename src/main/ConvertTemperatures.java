@@ -0,0 +1,74 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import main.TileScheduler.TileResult;
+import utils.TemperatureCubeMapped;
+
+/** Converts tiles' Daymet tmin and tmax files to the binary store read by {@link TemperatureCubeMapped}. <br>
+ *  A year is skipped if its converted file is newer than both of its NetCDF files, so the
+ *  conversion can be rerun after new years or tiles are added.
+ *
+ * @author michaelfrancenelson */
+public class ConvertTemperatures {
+
+	/**
+	 * Convert every year of every tile, several tiles at once.
+	 *
+	 * @param tilesDirectory contains one {tileID}/ directory of input files per tile
+	 * @param storeDirectory where the converted files are written
+	 * @return the success or failure of each tile
+	 */
+	public static List<TileResult> convertTiles(int[] tiles, final int startYear, final int endYear,
+			final String tilesDirectory, final String storeDirectory, TileScheduler scheduler)
+	{
+		new File(storeDirectory).mkdirs();
+		List<TileResult> results = scheduler.runAll(tiles,
+				tile -> {
+					/* One day's layer of each variable. */
+					int[] shape = TileScheduler.readGridShape(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc", "tmin");
+					return 4L * shape[1] * shape[2] * 8;
+				},
+				tile -> {
+					for (int year = startYear; year <= endYear; year++)
+						convertYear(tilesDirectory + tile + "/", tile, year, storeDirectory);
+				});
+		TileScheduler.report(results);
+		return results;
+	}
+
+	/** @return true if the year was converted, false if its converted file was already up to date */
+	public static boolean convertYear(String inputDataDirectory, int tileID, int year, String storeDirectory) throws IOException
+	{
+		File tmin = new File(inputDataDirectory + tileID + "_" + year + "_tmin.nc");
+		File tmax = new File(inputDataDirectory + tileID + "_" + year + "_tmax.nc");
+		File converted = new File(TemperatureCubeMapped.filename(storeDirectory, tileID, year));
+		if (converted.exists() && converted.lastModified() >= Math.max(tmin.lastModified(), tmax.lastModified()))
+			return false;
+		System.out.println("TileID: " + tileID + " converting year: " + year);
+		TemperatureCubeMapped.convert(tmin.getPath(), tmax.getPath(), year, converted.getPath());
+		return true;
+	}
+
+	/* java -cp ... main.ConvertTemperatures E:/Data/Daymet/Tiles/ E:/Data/Daymet/Binary/ 1980 2016 [tile ...]
+	 * Without a list of tiles, every tile directory is converted. */
+	public static void main(String[] args)
+	{
+		String tilesDirectory = args[0];
+		int[] tiles;
+		if (args.length > 4)
+		{
+			tiles = new int[args.length - 4];
+			for (int i = 4; i < args.length; i++) tiles[i - 4] = Integer.parseInt(args[i]);
+		}
+		else
+		{
+			File[] listOfFiles = new File(tilesDirectory).listFiles(File::isDirectory);
+			tiles = new int[listOfFiles.length];
+			for (int i = 0; i < listOfFiles.length; i++) tiles[i] = Integer.parseInt(listOfFiles[i].getName());
+		}
+		convertTiles(tiles, Integer.parseInt(args[2]), Integer.parseInt(args[3]), tilesDirectory, args[1], new TileScheduler());
+	}
+}
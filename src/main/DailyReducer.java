@@ -0,0 +1,26 @@
+package main;
+
+import java.time.LocalDate;
+
+import utils.TemperatureCube;
+
+/** One output product computed from a tile's daily temperature layers. <br>
+ *  {@link FusedRunner} reads each year once and hands every day to all of its reducers,
+ *  so adding a product adds no input I/O. Each reducer writes its own output cube. <br>
+ *  Layers are flat, indexed {@code col * nRow + row}, and only valid during the call.
+ *
+ * @author michaelfrancenelson */
+public interface DailyReducer {
+
+	/** Called before the first day of each year, in order. <br>
+	 *  The cube is open until endYear() returns, for reducers that need more than one day at a time. */
+	public void beginYear(int year, TemperatureCube temperatures);
+
+	/** Called for each day in the year's file, from January 1 on. */
+	public void accept(LocalDate date, float[] minTemps, float[] maxTemps);
+
+	public void endYear(int year);
+
+	/** Called once after the last year, to write the output. */
+	public void finish();
+}
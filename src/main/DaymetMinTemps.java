@@ -2,17 +2,27 @@ package main;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
+import main.TileScheduler.TileResult;
+import utils.ActiveCells;
 import utils.DataCubeDaymet;
+import utils.OutputFormat;
+import utils.OutputManifest;
+import utils.TemperatureCache;
+import utils.TemperatureCube;
 import utils.TemperatureCubeDaymet;
+import utils.TemperatureCubeMapped;
 
 public class DaymetMinTemps {
 
 	DataCubeDaymet data_cube;
-	TemperatureCubeDaymet temp_cube;
+	TemperatureCube temp_cube;
 
 	int winter_start_day = 240;
 	int winter_end_day = 120;
@@ -21,28 +31,78 @@ public class DaymetMinTemps {
 	int start_year;
 	int end_year;
 
-	int[][] mask;
+	ActiveCells activeCells;
 
 	String tmin_suffix = "_tmin.nc";
 	String tmax_suffix = "_tmax.nc";
 
+	/** Storage of the outputs, null for uncompressed NetCDF-3 doubles. */
+	OutputFormat outputFormat;
 
-	public double[][] getAnnualMin(String min_filename, String max_filename, int year)
+	/** Decoded years shared between winters and products, or null to read every year from disk each time. */
+	TemperatureCache cache;
+
+	/** A store of years converted by {@link ConvertTemperatures} to map instead of reading the NetCDF files, or null. */
+	String binaryDirectory;
+
+	/** Skip outputs that are still current, or redo only the layers whose tmin files have changed, see {@link OutputManifest}. */
+	boolean incremental;
+
+	/** Computes one layer of an output. */
+	interface LayerSource { double[][] layer(int i); }
+
+	/** Read a year, from the binary store or through the cache if there is one. Must be closed to unpin it. */
+	private TemperatureCube load(String min_filename, String max_filename, int year)
 	{
-		LocalDate start_date = LocalDate.of(year, 1, 1);
-		LocalDate next_date = start_date.plusDays(1);
+		if (binaryDirectory != null)
+		{
+			String filename = TemperatureCubeMapped.filename(binaryDirectory, tile_number, year);
+			try { return new TemperatureCubeMapped(filename); }
+			catch (IOException e) { throw new UncheckedIOException("Could not map " + filename, e); }
+		}
+		if (cache == null) return new TemperatureCubeDaymet(min_filename, max_filename, year);
+		return new TemperatureCubeDaymet(min_filename, max_filename, tile_number, year, cache);
+	}
 
-		temp_cube = new TemperatureCubeDaymet(min_filename, max_filename, year);
-		double[][] current_min = temp_cube.getMinOnDate(start_date);
+	private static void close(TemperatureCube cube)
+	{
+		try { cube.close(); }
+		catch (IOException e) { throw new UncheckedIOException(e); }
+	}
 
-		System.out.println("year: " + start_date.getYear());
-		while (next_date.getYear() == year)
+	/** The files the temperatures of some years are read from, for an {@link OutputManifest} fingerprint. */
+	private String[] yearInputs(String input_file_name_base, int... years)
+	{
+		List<String> files = new ArrayList<String>();
+		for (int year : years)
 		{
-			//			System.out.println("year = " + next_date.getYear() + ", day = " + next_date.getDayOfYear());
-			cellwiseMin(current_min, temp_cube.getMinOnDate(next_date));
-			if (next_date.isLeapYear() & next_date.getDayOfYear() == 365) next_date = next_date.plusYears(1);
-			next_date = next_date.plusDays(1);
+			files.add(input_file_name_base + year + tmin_suffix);
+			if (binaryDirectory != null) files.add(TemperatureCubeMapped.filename(binaryDirectory, tile_number, year));
 		}
+		return files.toArray(new String[0]);
+	}
+
+
+	public double[][] getAnnualMin(String min_filename, String max_filename, int year)
+	{
+		LocalDate start_date = LocalDate.of(year, 1, 1);
+		LocalDate next_date = start_date.plusDays(1);
+
+		temp_cube = load(min_filename, max_filename, year);
+		float[] current_min;
+		try {
+			current_min = new float[temp_cube.getNcols() * temp_cube.getNrows()];
+			temp_cube.getMinOnDate(start_date, current_min);
+
+			System.out.println("year: " + start_date.getYear());
+			while (next_date.getYear() == year)
+			{
+				//			System.out.println("year = " + next_date.getYear() + ", day = " + next_date.getDayOfYear());
+				cellwiseMin(current_min, temp_cube.getMinLayer(next_date));
+				if (next_date.isLeapYear() & next_date.getDayOfYear() == 365) next_date = next_date.plusYears(1);
+				next_date = next_date.plusDays(1);
+			}
+		} finally { close(temp_cube); }
 		return applyMask(current_min);
 	}
 
@@ -51,55 +111,55 @@ public class DaymetMinTemps {
 		LocalDate start_date = LocalDate.of(year, 9, 1); 
 		LocalDate next_date = start_date.plusDays(1);
 
-		temp_cube = new TemperatureCubeDaymet(min_filename, max_filename, year);
-		TemperatureCubeDaymet temp_cube_2 = new TemperatureCubeDaymet(min_filename_2, max_filename_2, year + 1);;
-
-		double[][] current_min = temp_cube.getMinOnDate(start_date);
-
-		System.out.println("winter start year: " + start_date.getYear());
-		while (next_date.getYear() == year)
-		{
-			cellwiseMin(current_min, temp_cube.getMinOnDate(next_date));
-			if (next_date.isLeapYear() & next_date.getDayOfYear() == 365) next_date = next_date.plusYears(1);
-			next_date = next_date.plusDays(1);
-		}
-		System.out.println("winter end   year: " + next_date.getYear());
-		while (next_date.getDayOfYear() < winter_end_day)
-		{
-			cellwiseMin(current_min, temp_cube_2.getMinOnDate(next_date));
-			if (next_date.isLeapYear() & next_date.getDayOfYear() == 365) next_date = next_date.plusYears(1);
-			next_date = next_date.plusDays(1);
-		}
+		/* Closed even if reading fails, so a cached year is never left pinned. */
+		temp_cube = load(min_filename, max_filename, year);
+		float[] current_min;
+		try {
+			TemperatureCube temp_cube_2 = load(min_filename_2, max_filename_2, year + 1);
+			try {
+				current_min = new float[temp_cube.getNcols() * temp_cube.getNrows()];
+				temp_cube.getMinOnDate(start_date, current_min);
+
+				System.out.println("winter start year: " + start_date.getYear());
+				while (next_date.getYear() == year)
+				{
+					cellwiseMin(current_min, temp_cube.getMinLayer(next_date));
+					if (next_date.isLeapYear() & next_date.getDayOfYear() == 365) next_date = next_date.plusYears(1);
+					next_date = next_date.plusDays(1);
+				}
+				System.out.println("winter end   year: " + next_date.getYear());
+				while (next_date.getDayOfYear() < winter_end_day)
+				{
+					cellwiseMin(current_min, temp_cube_2.getMinLayer(next_date));
+					if (next_date.isLeapYear() & next_date.getDayOfYear() == 365) next_date = next_date.plusYears(1);
+					next_date = next_date.plusDays(1);
+				}
+			} finally { close(temp_cube_2); }
+		} finally { close(temp_cube); }
 		return applyMask(current_min);
 	}
 
 
-	private double[][] applyMask(double[][] input)
+	/** @return the flat layer as a [col][row] array, NaN for masked cells. */
+	private double[][] applyMask(float[] input)
 	{
-		for (int i = 0; i < input.length; i++) for (int j = 0; j < input[0].length; j++)
-		{
-			if (mask[i][j] == -1)
-				input[i][j] = Double.NaN;
-		}
-		return input;
+		return activeCells.toGrid(input, new double[activeCells.getNcols()][activeCells.getNrows()]);
 	}
 
 
 
-	/** Does not check for array size equality. */
-	private void cellwiseMin(double[][] current, double[][] next)
+	/** Only the active cells are updated. Does not check for array size equality. */
+	private void cellwiseMin(float[] current, FloatBuffer next)
 	{
-		for (int i = 0; i < current.length; i++) for (int j = 0; j < current[0].length; j++)
-		{
-			if (mask[i][j] > -1)
-				current[i][j] = Math.min(current[i][j], next[i][j]);
-		}
+		for (int offset : activeCells.getOffsets())
+			current[offset] = Math.min(current[offset], next.get(offset));
 	}
 
 	public void runWinterMin(int tileID, int startYear, int endYear, String inputDataDirectory, String outputDirectory)
 	{
 
 		String input_file_name_base = inputDataDirectory + tileID + "_" ;
+		tile_number = tileID;
 
 		String tmin_file_name = input_file_name_base + startYear + tmin_suffix;
 		String tmax_file_name = input_file_name_base + startYear + tmax_suffix;
@@ -109,11 +169,28 @@ public class DaymetMinTemps {
 
 		String filenameOutput = outputDirectory + tileID + "_" + startYear + "_" + endYear + "_winter_tmin.nc";		
 
-		data_cube = new DataCubeDaymet();
-		mask = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear, "winter_tmin", "winter_ending_in", 1);
-
 		int nYears = endYear - startYear + 1;
 
+		OutputManifest manifest = null;
+		if (incremental)
+		{
+			/* Each winter only depends on the tmin of the two years it spans; the last layer is never computed. */
+			String[] layerInputs = new String[nYears];
+			for (int i = 0; i < nYears; i++)
+				layerInputs[i] = (i < nYears - 1)
+					? OutputManifest.fingerprint(yearInputs(input_file_name_base, startYear + i, startYear + i + 1))
+					: OutputManifest.fingerprint();
+			manifest = updateStale(filenameOutput, "winter_tmin", tmin_file_name, startYear, endYear,
+					"winter_end_day " + winter_end_day, layerInputs,
+					i -> getWinterMin(input_file_name_base + (startYear + i) + tmin_suffix, input_file_name_base + (startYear + i + 1) + tmin_suffix,
+							input_file_name_base + (startYear + i) + tmax_suffix, input_file_name_base + (startYear + i + 1) + tmax_suffix, startYear + i));
+			if (manifest == null) return;
+		}
+
+		data_cube = new DataCubeDaymet();
+		data_cube.setOutputFormat(outputFormat);
+		activeCells = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear, "winter_tmin", "winter_ending_in", 1);
+
 		for (int i = 0; i < nYears - 1; i++)
 		{
 			tmin_file_name = input_file_name_base + (startYear + i) + tmin_suffix;
@@ -126,23 +203,38 @@ public class DaymetMinTemps {
 		}
 
 		data_cube.writeOutputFile();
-
+		saveManifest(manifest);
+		if (cache != null) System.out.println("TileID: " + tileID + " " + cache);
 	}
 
 	public void runAnnualMin(int tileID, int startYear, int endYear, String inputDataDirectory, String outputDirectory)
 	{
 		String input_file_name_base = inputDataDirectory + tileID + "_" ;
+		tile_number = tileID;
 
 		String tmin_file_name = input_file_name_base + startYear + tmin_suffix;
 		String tmax_file_name = input_file_name_base + startYear + tmax_suffix;
 
 		String filenameOutput = outputDirectory + tileID + "_" + startYear + "_" + endYear + "_annual_tmin.nc";		
 
-		data_cube = new DataCubeDaymet();
-		mask = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear, "annual_tmin", "year", 0);
-
 		int nYears = endYear - startYear + 1;
 
+		OutputManifest manifest = null;
+		if (incremental)
+		{
+			/* Each year's minimum only depends on its own tmin. */
+			String[] layerInputs = new String[nYears];
+			for (int i = 0; i < nYears; i++)
+				layerInputs[i] = OutputManifest.fingerprint(yearInputs(input_file_name_base, startYear + i));
+			manifest = updateStale(filenameOutput, "annual_tmin", tmin_file_name, startYear, endYear, "", layerInputs,
+					i -> getAnnualMin(input_file_name_base + (startYear + i) + tmin_suffix, input_file_name_base + (startYear + i) + tmax_suffix, startYear + i));
+			if (manifest == null) return;
+		}
+
+		data_cube = new DataCubeDaymet();
+		data_cube.setOutputFormat(outputFormat);
+		activeCells = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear, "annual_tmin", "year", 0);
+
 		for (int i = 0; i < nYears; i++)
 		{
 			tmin_file_name = input_file_name_base + (startYear + i) + tmin_suffix;
@@ -152,7 +244,52 @@ public class DaymetMinTemps {
 		}
 
 		data_cube.writeOutputFile();
+		saveManifest(manifest);
+		if (cache != null) System.out.println("TileID: " + tileID + " " + cache);
+	}
 
+	/**
+	 * The first step of an incremental run. An output whose manifest is current is left alone; if
+	 * only some layers are stale they are computed again and written over the old ones. Otherwise
+	 * the manifest is removed, for the caller to rewrite the whole output and then save it.
+	 *
+	 * @param settings anything else the layers depend on
+	 * @return the manifest to save once the output is rewritten, or null if nothing is left to do
+	 */
+	private OutputManifest updateStale(String filenameOutput, String varName, String templateFile, int startYear, int endYear,
+			String settings, String[] layerInputs, LayerSource source)
+	{
+		String configuration = varName + " " + startYear + " " + endYear + " " + settings
+				+ "\n" + ((outputFormat == null) ? OutputFormat.netcdf3() : outputFormat)
+				+ "\n" + OutputManifest.fingerprint(templateFile);
+		OutputManifest manifest = new OutputManifest(filenameOutput, configuration, layerInputs);
+		int[] stale = manifest.staleLayers();
+		try {
+			if (stale.length == 0)
+			{
+				System.out.println(filenameOutput + " is up to date");
+				return null;
+			}
+			manifest.invalidate();
+			if (stale.length == layerInputs.length) return manifest;
+
+			activeCells = DataCubeDaymet.templateCells(templateFile);
+			data_cube = DataCubeDaymet.openForUpdate(filenameOutput, varName);
+			try {
+				for (int i : stale) data_cube.addDataLayer(i, source.layer(i));
+			} finally { data_cube.writeOutputFile(); }
+			manifest.save();
+			System.out.println(filenameOutput + ": updated " + stale.length + " of " + layerInputs.length + " layers");
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not update " + filenameOutput, e);
+		}
+	}
+
+	private static void saveManifest(OutputManifest manifest)
+	{
+		try { if (manifest != null) manifest.save(); }
+		catch (IOException e) { e.printStackTrace(); }
 	}
 
 	public static List<String> findFoldersInDirectory(String directoryPath) {
@@ -173,12 +310,89 @@ public class DaymetMinTemps {
 		return foldersInDirectory;
 	}
 
+	/**
+	 * Run the annual and winter minimums for every tile, several tiles at once. <br>
+	 * Each tile keeps its last two years decoded, so each winter only reads the year it ends in.
+	 *
+	 * @param tilesDirectory contains one {tileID}/ directory of input files per tile
+	 * @param format of both outputs, or null for NetCDF-3 doubles
+	 * @param incremental skip outputs that are current, and redo only the changed years of the rest
+	 * @return the success or failure of each tile
+	 */
+	public static List<TileResult> runTiles(int[] tiles, final int startYear, final int endYear, final String tilesDirectory,
+			final String outputDirectory, final String outputDirectory_wmin, final OutputFormat format, final boolean incremental,
+			TileScheduler scheduler)
+	{
+		List<TileResult> results = scheduler.runAll(tiles,
+				tile -> estimateMemory(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc", endYear - startYear + 1),
+				tile -> {
+					System.out.println("tile id: " + tile);
+					DaymetMinTemps dm = new DaymetMinTemps();
+					dm.outputFormat = format;
+					dm.incremental = incremental;
+					dm.cache = new TemperatureCache(cacheBytes(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc", 2));
+					String inputDataDirectory = tilesDirectory + tile + "/";
+					dm.runAnnualMin(tile, startYear, endYear, inputDataDirectory, outputDirectory);
+					dm.runWinterMin(tile, startYear, endYear, inputDataDirectory, outputDirectory_wmin);
+				});
+		TileScheduler.report(results);
+		return results;
+	}
+
+	/** Bytes to cache nYears of a tile's tmin and tmax, from the dimensions of one of its files. */
+	public static long cacheBytes(String tminFile, int nYears) throws IOException
+	{
+		int[] shape = TileScheduler.readGridShape(tminFile, "tmin");
+		return 2L * nYears * shape[0] * shape[1] * shape[2] * 4;
+	}
+
+	/**
+	 * Rough heap needed for one tile, from the dimensions of its first input file. <br>
+	 * A winter holds two years of tmin and tmax, and the previous winter's cube is
+	 * still held while the next is read; with the cache, the year before is held instead.
+	 */
+	public static long estimateMemory(String tminFile, int nYears) throws IOException
+	{
+		int[] shape = TileScheduler.readGridShape(tminFile, "tmin");
+		long nCells = (long) shape[1] * shape[2];
+		long cube = shape[0] * nCells * 4;
+
+		/* Output cube, mask, lat/lon and a few daily layers. */
+		return 6 * cube + (nYears + 1) * nCells * 8 + 16 * nCells * 8;
+	}
+
 	public static void main (String[] args)
 	{
 		int tileID = 10832;
 		int startYear = 1980;
 		int endYear = 2016;
 
+		/* java -cp ... main.DaymetMinTemps 10832 1980 2016 E:/Data/Daymet/Tiles/10832/ annual_tmin/ winter_tmin/ [-nc4] [-float | -short] [-incremental] [-binary dir]
+		 * -nc4, -float and -short choose the output format as for DaymetRunner; -short stores temperatures in hundredths of a degree.
+		 * -binary E:/Data/Daymet/Binary/ maps years converted by ConvertTemperatures instead of reading the NetCDF files.
+		 * -incremental skips outputs that are current, and redoes only the years whose tmin files changed. */
+		if (args.length > 0)
+		{
+			DaymetMinTemps dm = new DaymetMinTemps();
+			boolean nc4 = false;
+			String packing = null;
+			for (int i = 6; i < args.length; i++)
+			{
+				if (args[i].equals("-nc4")) nc4 = true;
+				else if (args[i].equals("-float") || args[i].equals("-short")) packing = args[i];
+				else if (args[i].equals("-incremental")) dm.incremental = true;
+				else if (args[i].equals("-binary")) dm.binaryDirectory = args[++i];
+				else throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+			dm.outputFormat = OutputFormat.fromOptions(nc4, packing, OutputFormat.TEMPERATURE_SCALE);
+			tileID = Integer.parseInt(args[0]);
+			startYear = Integer.parseInt(args[1]);
+			endYear = Integer.parseInt(args[2]);
+			dm.runAnnualMin(tileID, startYear, endYear, args[3], args[4]);
+			dm.runWinterMin(tileID, startYear, endYear, args[3], args[5]);
+			return;
+		}
+
 
 //		String[] tiles = new String[] {"10842", "11739", "12090", "12091", "12268", "12269", "12269", "12449", "12628", "12629", "12632", "12806", "12809", "12814"};
 //		String[] tiles = new String[] {"12268", "12269", "12449", "12628", "12629", "12632", "12806", "12809", "12814"};
@@ -203,15 +417,9 @@ public class DaymetMinTemps {
 
 
 
-		//	for (int i = 103; i < tileIDs.size(); i++)
-		for (String tile : tiles)
-		{
-			System.out.println("tile id: " + tile);
-			tileID = Integer.parseInt(tile);
-			inputDataDirectory = "E:/Data/Daymet/Tiles/" + tileID + "/";
-			dm.runAnnualMin(tileID, startYear, endYear, inputDataDirectory, outputDirectory);
-			dm.runWinterMin(tileID, startYear, endYear, inputDataDirectory, outputDirectory_wmin);
-		}
+		int[] tileIDs = new int[tiles.length];
+		for (int i = 0; i < tiles.length; i++) tileIDs[i] = Integer.parseInt(tiles[i]);
+		runTiles(tileIDs, startYear, endYear, "E:/Data/Daymet/Tiles/", outputDirectory, outputDirectory_wmin, null, false, new TileScheduler());
 
 		//		for (String tile : tileIDs)
 		//		for (int i = 103; i < tileIDs.size(); i++)
@@ -1,12 +1,75 @@
 package main;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import utils.Checkpoint;
 import utils.DataCubeDaymet;
+import utils.ModelParameters;
+import utils.MosaicWriter;
+import utils.OutputFormat;
+import utils.OutputManifest;
+import utils.PhaseEvent;
+import utils.RunStatistics;
+import utils.RunStatistics.Phase;
+import utils.SeasonDiagnostics;
+import main.TileScheduler.TileResult;
+import utils.TemperatureCache;
+import utils.TemperatureCube;
 import utils.TemperatureCubeDaymet;
+import utils.TemperatureCubeDaymetStream;
+import utils.TemperatureCubeLoader;
+import utils.TemperatureCubeMapped;
+import utils.TemperatureCubePrefetcher;
 
 public class DaymetRunner extends ModelRunner{
 
+	/** Read the temperatures a few days at a time rather than a whole year at once. */
+	boolean streamTemperatures;
+
+	/** Write each year's survival to the output file as soon as it is computed. */
+	boolean streamOutput;
+
+	/** Storage of the survival output, null for uncompressed NetCDF-3 doubles. */
+	OutputFormat outputFormat;
+
+	/** Save the cells' states and the finished layers after every year, see {@link Checkpoint}. */
+	boolean checkpointing;
+
+	/** Continue from the last checkpoint, if there is one, and keep checkpointing. */
+	boolean resume;
+
+	/** Save the cells' final state in the output so that later years can be appended, see {@link #append}. */
+	boolean appendable;
+
+	/** If set, survival is written into this tile's window of a shared mosaic instead of a file of its own. */
+	MosaicWriter mosaic;
+
+	/** Decoded years to share with other runs and products, or null. Not used when streaming. */
+	TemperatureCache cache;
+
+	/** If set, years are mapped from files converted by {@link ConvertTemperatures} in this directory,
+	 *  instead of being decoded from the Daymet files. */
+	String binaryDirectory;
+
+	/** Also write each winter's {@link SeasonDiagnostics} to the survival file. Only run() writes them,
+	 *  and not to a mosaic or with checkpoints, which don't keep the diagnostics of a winter in progress. */
+	boolean writeDiagnostics;
+
+	/** Skip the run if its output is still current, or redo only the winters whose inputs have
+	 *  changed, see {@link OutputManifest}. Not used for mosaics. */
+	boolean incremental;
+
 	public static void main(String[] args)
 	{
 		int tileID = -1;
@@ -23,9 +86,73 @@ public class DaymetRunner extends ModelRunner{
 			endYear = Integer.parseInt(args[2]);
 			inputDataDirectory = args[3];
 			outputDirectory = args[4];
-			runner.run(tileID, startYear, endYear, inputDataDirectory, outputDirectory);
+			int nThreads = 1;
+			int appendThrough = -1;
+			boolean nc4 = false;
+			String packing = null;
+			double[] warming = null;
+			for (int i = 5; i < args.length; i++)
+			{
+				if (args[i].equals("-stream")) runner.streamTemperatures = true;
+				else if (args[i].equals("-streamOutput")) runner.streamOutput = true;
+				else if (args[i].equals("-checkpoint")) runner.checkpointing = true;
+				else if (args[i].equals("-resume")) runner.resume = true;
+				else if (args[i].equals("-appendable")) runner.appendable = true;
+				else if (args[i].equals("-append")) appendThrough = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-binary")) runner.binaryDirectory = args[++i];
+				else if (args[i].equals("-cellMajor")) runner.cellMajor = true;
+				else if (args[i].equals("-diagnostics")) runner.writeDiagnostics = true;
+				else if (args[i].equals("-incremental")) runner.incremental = true;
+				else if (args[i].equals("-nc4")) nc4 = true;
+				else if (args[i].equals("-float") || args[i].equals("-short")) packing = args[i];
+				else if (args[i].equals("-scenarios")) warming = FusedRunner.parseWarming(args[++i]);
+				else if (args[i].matches("\\d+")) nThreads = Integer.parseInt(args[i]);
+				else throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+			runner.outputFormat = OutputFormat.fromOptions(nc4, packing, OutputFormat.SURVIVAL_SCALE);
+			if (warming != null)
+			{
+				if (nThreads > 1 || appendThrough > 0 || runner.appendable || runner.checkpointing || runner.resume
+						|| runner.writeDiagnostics || runner.incremental || runner.cellMajor || runner.streamOutput)
+					throw new IllegalArgumentException("-scenarios only goes with -stream, -binary, -nc4, -float and -short");
+				FusedRunner scenarios = new FusedRunner(tileID, startYear, endYear, inputDataDirectory);
+				scenarios.streamTemperatures = runner.streamTemperatures;
+				scenarios.binaryDirectory = runner.binaryDirectory;
+				scenarios.addScenarios(outputDirectory, runner.outputFormat, warming).run();
+			}
+			else if (appendThrough > 0)
+				runner.append(tileID, startYear, endYear, appendThrough, inputDataDirectory, outputDirectory);
+			else if (nThreads > 1)
+			{
+				if (runner.appendable)
+					throw new IllegalArgumentException("Parallel runs don't end with the cells' state, so can't be made appendable");
+				if (runner.writeDiagnostics)
+					throw new IllegalArgumentException("Diagnostics are only written by sequential runs");
+				if (runner.checkpointing || runner.resume)
+					throw new IllegalArgumentException("Checkpoints are only saved and resumed by sequential runs");
+				runner.runParallel(tileID, startYear, endYear, inputDataDirectory, outputDirectory, nThreads);
+			}
+			else
+				runner.run(tileID, startYear, endYear, inputDataDirectory, outputDirectory);
+			return;
 		}
 		/* java -jar DaymetRunner.jar 10832 1980 1985 E:/Data/Daymet/Tiles/10832/ E:/Data/Daymet/Tiles/10832/ */ 
+		/* An optional number after these runs the winters in parallel on that many threads, 
+		 * -stream reads the temperatures a few days at a time instead of a year at once,
+		 * and -streamOutput writes each year to the output file as soon as it is done.
+		 * -nc4 writes deflated NetCDF-4 in chunks of 64 x 64 cells holding every year,
+		 * and -float or -short store survival as floats or as shorts scaled by 1e-4.
+		 * -checkpoint saves the run's progress after every year, and -resume continues
+		 * a failed run from its last checkpoint; neither works with a thread count.
+		 * -appendable saves the cells' final state in the output, and -append 2017 then adds
+		 * the winters through 2017 to that file, renaming it to end in 2017.
+		 * -binary E:/Data/Daymet/Binary/ maps years converted by ConvertTemperatures instead of reading the NetCDF files.
+		 * -cellMajor runs each block of cells through a whole year at a time, and -diagnostics adds
+		 * each winter's survival drop day, minimum LT50, peak cold hardening and days below LT50 to the output.
+		 * -incremental skips the tile if its output is current, or reruns only the winters whose input files changed.
+		 * -scenarios 0,1.5,3 runs the tile once for each warming, in degrees C added to every temperature, in one pass
+		 * over the files, see EnsembleReducer.scenarios(); the survival of every scenario is written to one file
+		 * with a scenario dimension, named as a FusedRunner writes it. */ 
 		/* Uncomment and edit these to specify arguments within this source. */
 		
 
@@ -85,70 +212,475 @@ public class DaymetRunner extends ModelRunner{
 //				11191, 
 //		};
 
-		
-//		for (int i = 0; i < 88; i++)
-		for (int i = 88; i < tiles.length; i++)
+
+		/* To share the tiles between several JVMs or hosts, run TileQueue on each instead. */
+		runTiles(tiles, startYear, endYear, inputDataDirectory, outputDirectory, new TileScheduler());
+		/* Or write every tile into one regional file: */
+//		runMosaic(tiles, startYear, endYear, inputDataDirectory, outputDirectory + "mosaic_" + startYear + "_" + endYear + "_modeled_beetle_survival.nc", null, new TileScheduler());
+	}
+
+	/**
+	 * Run every tile through its own runner, several at once.
+	 *
+	 * @param tilesDirectory contains one {tileID}/ directory of input files per tile
+	 * @return the success or failure of each tile
+	 */
+	public static List<TileResult> runTiles(int[] tiles, final int startYear, final int endYear,
+			final String tilesDirectory, final String outputDirectory, TileScheduler scheduler)
+	{
+		return runTiles(tiles, startYear, endYear, tilesDirectory, outputDirectory, false, scheduler);
+	}
+
+	/** As runTiles(), stepping the years cell-major if asked, see {@link ModelRunner#cellMajor}. */
+	public static List<TileResult> runTiles(int[] tiles, final int startYear, final int endYear,
+			final String tilesDirectory, final String outputDirectory, final boolean cellMajor, TileScheduler scheduler)
+	{
+		List<TileResult> results = scheduler.runAll(tiles,
+				tile -> estimateMemory(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc", endYear - startYear + 1, cellMajor),
+				tile -> {
+					DaymetRunner runner = new DaymetRunner();
+					runner.cellMajor = cellMajor;
+					runner.run(tile, startYear, endYear, tilesDirectory + tile + "/", outputDirectory);
+				});
+		TileScheduler.report(results);
+		return results;
+	}
+
+	/**
+	 * As runTiles(), but every tile writes its survival into its window of one mosaic
+	 * file on the tiles' shared grid, rather than to a file of its own.
+	 *
+	 * @param mosaicFile the output; any checkpoints are written next to it
+	 * @param format null for uncompressed NetCDF-3 doubles
+	 * @throws IOException if the mosaic can't be created from the tiles' first tmin files
+	 */
+	public static List<TileResult> runMosaic(int[] tiles, final int startYear, final int endYear,
+			final String tilesDirectory, String mosaicFile, OutputFormat format, TileScheduler scheduler) throws IOException
+	{
+		List<String> templates = new ArrayList<String>();
+		for (int tile : tiles) templates.add(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc");
+		final MosaicWriter mosaic = MosaicWriter.create(mosaicFile, templates, startYear, endYear,
+				"percent_survival", "winter_ending_in", 1, format);
+		final String workDirectory = new File(mosaicFile).getAbsoluteFile().getParent() + "/";
+
+		List<TileResult> results;
+		try {
+			results = scheduler.runAll(tiles,
+					tile -> estimateMemory(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc", endYear - startYear + 1),
+					tile -> {
+						DaymetRunner runner = new DaymetRunner();
+						runner.mosaic = mosaic;
+						runner.run(tile, startYear, endYear, tilesDirectory + tile + "/", workDirectory);
+					});
+		} finally { mosaic.close(); }
+		TileScheduler.report(results);
+		return results;
+	}
+
+	/**
+	 * Rough heap needed by run() for one tile, from the dimensions of its first input file. <br>
+	 * The year being simulated, the year read ahead and the year being read can all be held
+	 * at once, so six float cubes are counted.
+	 */
+	public static long estimateMemory(String tminFile, int nYears) throws IOException
+	{
+		return estimateMemory(tminFile, nYears, false);
+	}
+
+	/** As estimateMemory(), for a run that may be cell-major. That also holds the year's tmin and
+	 *  tmax rearranged into a {@link utils.CellSeries}, up to another two cubes, beside the year itself. */
+	public static long estimateMemory(String tminFile, int nYears, boolean cellMajor) throws IOException
+	{
+		int[] shape = TileScheduler.readGridShape(tminFile, "tmin");
+		long nCells = (long) shape[1] * shape[2];
+		long cube = shape[0] * nCells * 4;
+
+		/* Output cube, plus cell states, mask, lat/lon and a few daily layers. */
+		return 6 * cube + (cellMajor ? 2 * cube : 0) + (nYears + 1) * nCells * 8 + 16 * nCells * 8;
+	}
+
+
+	public void run(int tileID, int startYear, int endYear, String inputDataDirectory, String outputDirectory)
+	{
+
+		String tmin_file_name = inputDataDirectory + tileID + "_" + startYear + "_tmin.nc";
+
+		String filenameOutput = outputDirectory + tileID + "_" + startYear + "_" + endYear + "_modeled_beetle_survival.nc";		
+		OutputManifest manifest = null;
+		if (incremental)
+		{
+			manifest = updateStale(tileID, startYear, endYear, inputDataDirectory, filenameOutput);
+			if (manifest == null) return;
+		}
+
+		DataCubeDaymet output = new DataCubeDaymet(streamOutput);
+		output.setOutputFormat(outputFormat);
+		output.setAppendable(appendable);
+		data_cube = (mosaic == null) ? output : mosaic.newTile();
+		stats = new RunStatistics(tileID);
+		if (writeDiagnostics)
 		{
-			int tile = tiles[i];
-			inputDataDirectory = "E:/Data/Daymet/Tiles/" + tile + "/";
-			runner.run(tile, startYear, endYear, inputDataDirectory, outputDirectory);
+			if (mosaic != null || checkpointing || resume)
+				throw new IllegalStateException("Diagnostics can't be written to a mosaic or with checkpoints");
+			SeasonDiagnostics.addVariables(output);
 		}
 
-//		for (int tile : tiles)
-//		{
-//			inputDataDirectory = "E:/Data/Daymet/Tiles/" + tile + "/";
-//			runner.run(tile, startYear, endYear, inputDataDirectory, outputDirectory);
-//		}
+		int nYears = endYear - startYear + 1;
+
+		PhaseEvent event = stats.begin(Phase.INITIALIZE, 0);
+		activeCells = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear);
+		stats.end(event, 0, 0);
+		createCells();
+		diagnostics = writeDiagnostics ? new SeasonDiagnostics(activeCells) : null;
+
+		Checkpoint checkpoint = null;
+		int resumeYear = startYear;
+		if (checkpointing || resume)
+			checkpoint = new Checkpoint(filenameOutput, startYear, endYear, activeCells.size());
+		if (resume && checkpoint.exists())
+		{
+			List<double[]> layers = new ArrayList<double[]>();
+			try { resumeYear = checkpoint.load(states, layers); }
+			catch (IOException e) { throw new UncheckedIOException(e); }
+			for (int i = 0; i < layers.size(); i++)
+				data_cube.addDataLayer(i, activeCells.toGrid(layers.get(i), new double[activeCells.getNcols()][activeCells.getNrows()]));
+			System.out.println("TileID: " + tileID + " resuming at year " + resumeYear);
+		}
+		double[] layer = new double[activeCells.size()];
+
+		/* Read each year on a background thread while the previous one is simulated. */
+		TemperatureCubePrefetcher years = new TemperatureCubePrefetcher(
+				daymetLoader(inputDataDirectory, tileID),
+				resumeYear, endYear, 1);
+
+		try {
+			/* Daymet temperatures are in degrees C, no adjustment needed. */
+			double tempAdjust = 0;
+			scoreDay = 150;
 
+			/* Run the simulation once for the start year in order to prime the cells' states: */
+			if (resumeYear == startYear)
+			{
+				temperatures = years.next();
+				initializeDay = 180;
+				stepYear(startYear, tempAdjust, initializeDay, scoreDay);
+			}
 
+			/* Henceforth, initialization happens on January first. */
+			initializeDay = 1;
+
+			for(int i = resumeYear - startYear; i < nYears; i++)
+			{
+
+				System.out.println("TileID: " + tileID + " year: " + (startYear + i));
+
+				/* The start year's temperatures are already loaded for priming. */
+				if (i > 0 && temperatures != null)
+				{
+					temperatures.close();
+					temperatures = null;
+				}
+				if (temperatures == null) temperatures = years.next();
+				double[][] data = stepYear(startYear + i, tempAdjust, initializeDay, scoreDay); 
+
+				event = stats.begin(Phase.WRITE, startYear + i);
+				data_cube.addDataLayer(i, data);
+				if (diagnostics != null) diagnostics.addLayers(output, i);
+				if (checkpoint != null) checkpoint.save(startYear + i + 1, activeCells.fromGrid(data, layer), states);
+				stats.end(event, 0, 0);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			years.close();
+			try { if (temperatures != null) temperatures.close(); }
+			catch (IOException e) { e.printStackTrace(); }
+			temperatures = null;
+		}
+		System.out.println("TileID: " + tileID + " " + years);
+
+		event = stats.begin(Phase.WRITE, 0);
+		if (appendable && mosaic == null) output.saveState(states, activeCells, endYear);
+		data_cube.writeOutputFile();
+		stats.end(event, 0, 0);
+
+		try {
+			if (checkpoint != null) checkpoint.delete();
+			if (manifest != null) manifest.save();
+		} catch (IOException e) { e.printStackTrace(); }
+		writeStatistics(tileID, outputDirectory + tileID + "_" + startYear + "_" + endYear + "_timing.json");
 	}
 
+	/** The files the years are read from: the NetCDF tiles, and the binary store's files when -binary is set. */
+	private String[] yearInputs(String base, int tileID, int... years)
+	{
+		List<String> files = new ArrayList<String>();
+		for (int year : years)
+		{
+			files.add(base + year + "_tmin.nc");
+			files.add(base + year + "_tmax.nc");
+			if (binaryDirectory != null) files.add(TemperatureCubeMapped.filename(binaryDirectory, tileID, year));
+		}
+		return files.toArray(new String[0]);
+	}
 
-	public void run(int tileID, int startYear, int endYear, String inputDataDirectory, String outputDirectory)
+	/**
+	 * The first step of an incremental run. An output whose manifest is current is left alone.
+	 * If only some winters are stale, they are run again on their own, as in runParallel(), and
+	 * written over the old layers. Otherwise the manifest is removed, for the caller to rewrite the
+	 * whole output and then save the manifest returned. <br>
+	 * Each winter's inputs are the tmin and tmax files of the years it spans, and with -binary
+	 * their binary store files, since the cells are reset on scoreDay; the configuration covers
+	 * the model parameters, the output's format and contents, and the template the cells' mask
+	 * is taken from.
+	 *
+	 * @return the manifest to save once the output is rewritten, or null if nothing is left to do
+	 */
+	OutputManifest updateStale(int tileID, int startYear, int endYear, String inputDataDirectory, String filenameOutput)
 	{
+		if (mosaic != null) throw new IllegalStateException("Mosaic tiles are always written in full");
+		String base = inputDataDirectory + tileID + "_";
+		int nYears = endYear - startYear + 1;
+		String[] layerInputs = new String[nYears];
+		for (int i = 0; i < nYears; i++)
+		{
+			int year = startYear + i, previousYear = Math.max(startYear, year - 1);
+			layerInputs[i] = OutputManifest.fingerprint(yearInputs(base, tileID, previousYear, year));
+		}
+		String configuration = "modeled_beetle_survival " + startYear + " " + endYear
+				+ "\n" + ModelParameters.DEFAULT
+				+ "\n" + ((outputFormat == null) ? OutputFormat.netcdf3() : outputFormat)
+				+ "\nappendable " + appendable + ", diagnostics " + writeDiagnostics
+				+ "\n" + OutputManifest.fingerprint(base + startYear + "_tmin.nc");
+		OutputManifest manifest = new OutputManifest(filenameOutput, configuration, layerInputs);
 
-		String input_file_name_base = inputDataDirectory + tileID + "_" ;
-		String tmin_suffix = "_tmin.nc";
-		String tmax_suffix = "_tmax.nc";
+		int[] stale = manifest.staleLayers();
+		try {
+			if (stale.length == 0)
+			{
+				System.out.println("TileID: " + tileID + " is up to date");
+				return null;
+			}
+			/* The state saved in an appendable file depends on every year, so it is rewritten whole. */
+			if (stale.length == nYears || appendable)
+			{
+				manifest.invalidate();
+				return manifest;
+			}
 
-		String tmin_file_name = input_file_name_base + startYear + tmin_suffix;
-		String tmax_file_name = input_file_name_base + startYear + tmax_suffix;
+			manifest.invalidate();
+			stats = null;
+			TemperatureCubeLoader loader = daymetLoader(inputDataDirectory, tileID);
+			activeCells = DataCubeDaymet.templateCells(base + startYear + "_tmin.nc");
+			diagnostics = writeDiagnostics ? new SeasonDiagnostics(activeCells) : null;
+			DataCubeDaymet output = DataCubeDaymet.openForUpdate(filenameOutput, "percent_survival");
+			try {
+				for (int i : stale)
+				{
+					int year = startYear + i;
+					int previousYear = (i == 0) ? startYear : year - 1;
+					int previousStartDay = (i == 0) ? 180 : 150;
+					System.out.println("TileID: " + tileID + " updating winter: " + year);
+					try (TemperatureCube previous = loader.load(previousYear);
+							TemperatureCube current = loader.load(year)) {
+						output.addDataLayer(i, stepWinter(previous, previousYear, previousStartDay, current, year, 0, 150));
+					} finally { temperatures = null; }
+					if (diagnostics != null) diagnostics.addLayers(output, i);
+				}
+			} finally { output.writeOutputFile(); }
+			manifest.save();
+			System.out.println("TileID: " + tileID + " updated " + stale.length + " of " + nYears + " winters");
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not update " + filenameOutput, e);
+		}
+	}
 
-		String filenameOutput = outputDirectory + tileID + "_" + startYear + "_" + endYear + "_modeled_beetle_survival.nc";		
-		data_cube = new DataCubeDaymet();
+	/** Print the run's timing and save it next to the output. */
+	void writeStatistics(int tileID, String filename)
+	{
+		System.out.println("TileID: " + tileID + " " + stats);
+		try { stats.writeSummary(filename); }
+		catch (IOException e) { e.printStackTrace(); }
+	}
+
+	/**
+	 * Add the winters after endYear through newEndYear to a survival file that run() wrote with
+	 * appendable set, then rename it to end in newEndYear. <br>
+	 * Only the new years are simulated, starting from the cells' state saved in the file. If the
+	 * append fails, the saved state is untouched and it can be run again.
+	 */
+	public void append(int tileID, int startYear, int endYear, int newEndYear, String inputDataDirectory, String outputDirectory)
+	{
+		String filename = outputDirectory + tileID + "_" + startYear + "_" + endYear + "_modeled_beetle_survival.nc";
+		String newFilename = outputDirectory + tileID + "_" + startYear + "_" + newEndYear + "_modeled_beetle_survival.nc";
+		TemperatureCubeLoader loader = daymetLoader(inputDataDirectory, tileID);
+
+		try {
+			DataCubeDaymet output = DataCubeDaymet.openForAppend(filename, "percent_survival", "winter_ending_in");
+			data_cube = output;
+			try {
+				activeCells = output.readActiveCells();
+				createCells();
+				output.readState(states, activeCells);
 
-		temperatures = new TemperatureCubeDaymet(tmin_file_name, tmax_file_name, startYear);
+				initializeDay = 1;
+				scoreDay = 150;
+				for (int year = output.getStateYear() + 1; year <= newEndYear; year++)
+				{
+					System.out.println("TileID: " + tileID + " appending year: " + year);
+					try (TemperatureCube cube = loader.load(year)) {
+						temperatures = cube;
+						output.appendLayer(year, stepYear(year, 0, initializeDay, scoreDay));
+					} finally { temperatures = null; }
+				}
+				output.saveState(states, activeCells, newEndYear);
+			} finally {
+				data_cube.writeOutputFile();
+			}
+			if (!filename.equals(newFilename))
+				Files.move(Paths.get(filename), Paths.get(newFilename), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not append to " + filename, e);
+		}
+	}
 
-		int nRow, nCol, nYears;
+	/** Reads a year of a tile's Daymet tmin and tmax files, whole or streamed, or maps it from the
+	 *  binary store, timing each read if the run is timed. A streamed year is only opened here;
+	 *  its layers are read as they are used. A mapped year counts as read whole, as every page
+	 *  of it is touched by the run. */
+	TemperatureCubeLoader daymetLoader(String inputDataDirectory, int tileID)
+	{
+		final TemperatureCubeLoader loader;
+		if (binaryDirectory != null) loader = mappedLoader(binaryDirectory, tileID);
+		else if (cache != null && !streamTemperatures) loader = daymetLoader(inputDataDirectory, tileID, cache);
+		else loader = daymetLoader(inputDataDirectory, tileID, streamTemperatures);
+		final boolean streamed = streamTemperatures && binaryDirectory == null;
+		final RunStatistics stats = this.stats;
+		if (stats == null) return loader;
+		return year -> {
+			PhaseEvent event = stats.begin(Phase.READ, year);
+			TemperatureCube cube = loader.load(year);
+			/* A year of tmin and tmax, as floats. */
+			stats.end(event, 0, streamed ? 0 : 2L * 365 * cube.getNcols() * cube.getNrows() * 4);
+			return cube;
+		};
+	}
 
-		mask = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear);
+	/** Reads a year of a tile's Daymet tmin and tmax files, streamed if streamTemperatures is set. */
+	static TemperatureCubeLoader daymetLoader(String inputDataDirectory, int tileID, boolean streamTemperatures)
+	{
+		final String input_file_name_base = inputDataDirectory + tileID + "_" ;
+		final String tmin_suffix = "_tmin.nc";
+		final String tmax_suffix = "_tmax.nc";
+		if (streamTemperatures)
+			return year -> new TemperatureCubeDaymetStream(input_file_name_base + year + tmin_suffix, input_file_name_base + year + tmax_suffix, year);
+		return year -> new TemperatureCubeDaymet(input_file_name_base + year + tmin_suffix, input_file_name_base + year + tmax_suffix, year);
+	}
 
-		nRow = temperatures.getNrows(); nCol = temperatures.getNcols();
-		nYears = endYear - startYear + 1;
+	/** Maps a year of a tile converted by {@link ConvertTemperatures}. Pages are read as the layers are used. */
+	static TemperatureCubeLoader mappedLoader(String binaryDirectory, int tileID)
+	{
+		return year -> new TemperatureCubeMapped(TemperatureCubeMapped.filename(binaryDirectory, tileID, year));
+	}
 
-		createCells(nCol, nRow);
+	/** Reads a year of a tile's Daymet tmin and tmax files through a cache of decoded years. */
+	static TemperatureCubeLoader daymetLoader(String inputDataDirectory, int tileID, TemperatureCache cache)
+	{
+		final String input_file_name_base = inputDataDirectory + tileID + "_" ;
+		return year -> new TemperatureCubeDaymet(input_file_name_base + year + "_tmin.nc", input_file_name_base + year + "_tmax.nc",
+				tileID, year, cache);
+	}
 
-		/* Daymet temperatures are in degrees C, no adjustment needed. */
-		double tempAdjust = 0;
+	/**
+	 * Same output as run(), but each winter is simulated as an independent job
+	 * over its own window of dates, and the winters are run in parallel. <br>
+	 * This relies on the cells being reset on scoreDay, so that a winter only
+	 * depends on the temperatures from the previous scoreDay up to its own. <br>
+	 * Each year is needed by two winters, so unless a cache is set, one holding the years
+	 * of the winters in flight is used, and each year is only read once.
+	 *
+	 * @param nThreads number of winters to run at once
+	 */
+	public void runParallel(int tileID, int startYear, int endYear, String inputDataDirectory, String outputDirectory, int nThreads)
+	{
+		String tmin_file_name = inputDataDirectory + tileID + "_" + startYear + "_tmin.nc";
 
-		/* Run the simulation once for the start year in order to prime the cells' states: */
-		initializeDay = 180;
-		scoreDay = 150;
-		stepYear(startYear, tempAdjust, initializeDay, scoreDay);
+		String filenameOutput = outputDirectory + tileID + "_" + startYear + "_" + endYear + "_modeled_beetle_survival.nc";
+		OutputManifest manifest = null;
+		if (incremental)
+		{
+			manifest = updateStale(tileID, startYear, endYear, inputDataDirectory, filenameOutput);
+			if (manifest == null) return;
+		}
+
+		DataCubeDaymet output = new DataCubeDaymet(streamOutput);
+		output.setOutputFormat(outputFormat);
+		data_cube = (mosaic == null) ? output : mosaic.newTile();
+		stats = new RunStatistics(tileID);
+		TemperatureCache sharedCache = cache;
+		if (cache == null && !streamTemperatures && binaryDirectory == null)
+		{
+			try { cache = new TemperatureCache(DaymetMinTemps.cacheBytes(tmin_file_name, nThreads + 1)); }
+			catch (IOException e) { throw new UncheckedIOException(e); }
+		}
+		final TemperatureCubeLoader loader = daymetLoader(inputDataDirectory, tileID);
+		TemperatureCache winterCache = cache;
+		cache = sharedCache;
+
+		PhaseEvent event = stats.begin(Phase.INITIALIZE, 0);
+		activeCells = data_cube.initialize(tmin_file_name, filenameOutput, startYear, endYear);
+		stats.end(event, 0, 0);
 
-		/* Henceforth, initialization happens on January first. */
-		initializeDay = 1;
+		int nYears = endYear - startYear + 1;
 
+		/* Daymet temperatures are in degrees C, no adjustment needed. */
+		final double tempAdjust = 0;
+		final int scoreDay = 150;
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<double[][]>> winters = new ArrayList<Future<double[][]>>();
 		for(int i = 0; i < nYears; i++)
 		{
+			final int year = startYear + i;
+
+			/* The first winter is primed from the start year's own summer and fall,
+			 * as run() does; the others start from the previous year's scoreDay. */
+			final int previousYear = (i == 0) ? startYear : year - 1;
+			final int previousStartDay = (i == 0) ? 180 : scoreDay;
+
+			winters.add(executor.submit(() -> {
+				System.out.println("TileID: " + tileID + " winter ending: " + year);
+				ModelRunner winter = new ModelRunner();
+				winter.activeCells = activeCells;
+				winter.stats = stats;
+				winter.cellMajor = cellMajor;
+				try (TemperatureCube previous = loader.load(previousYear);
+						TemperatureCube current = loader.load(year)) {
+					return winter.stepWinter(previous, previousYear, previousStartDay, current, year, tempAdjust, scoreDay);
+				}
+			}));
+		}
+		executor.shutdown();
 
-			System.out.println("TileID: " + tileID + " year: " + (startYear + i));
-			tmin_file_name = input_file_name_base + (startYear + i) + tmin_suffix;
-			tmax_file_name = input_file_name_base + (startYear + i) + tmax_suffix;
-			temperatures = new TemperatureCubeDaymet(tmin_file_name, tmax_file_name, startYear + i);
-			double[][] data = stepYear(startYear + i, tempAdjust, initializeDay, scoreDay); 
-			data_cube.addDataLayer(i, data);
+		try {
+			for(int i = 0; i < nYears; i++)
+			{
+				double[][] data = winters.get(i).get();
+				event = stats.begin(Phase.WRITE, startYear + i);
+				data_cube.addDataLayer(i, data);
+				stats.end(event, 0, 0);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			executor.shutdownNow();
+			throw new RuntimeException("Tile " + tileID + " failed", e);
 		}
+		event = stats.begin(Phase.WRITE, 0);
 		data_cube.writeOutputFile();
+		stats.end(event, 0, 0);
+		if (winterCache != null) System.out.println("TileID: " + tileID + " " + winterCache);
+		try { if (manifest != null) manifest.save(); }
+		catch (IOException e) { e.printStackTrace(); }
+		writeStatistics(tileID, outputDirectory + tileID + "_" + startYear + "_" + endYear + "_timing.json");
 	}
 }
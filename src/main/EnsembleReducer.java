@@ -0,0 +1,159 @@
+package main;
+
+import java.time.LocalDate;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import utils.ActiveCells;
+import utils.CellStates;
+import utils.DataCubeDaymet;
+import utils.ModelParameters;
+import utils.RegniereBentzMPBCalculator;
+import utils.TemperatureCube;
+
+/** Beetle survival for an ensemble of model runs, together in one pass over the temperatures. <br>
+ *  Each member has its own parameter set and temperature adjustment, so the ensemble may vary the
+ *  parameters, the temperatures as warming scenarios, or both. <br>
+ *  Scored as {@link SurvivalReducer}, once per member. The members' states are stored member-innermost,
+ *  so each day's temperatures for a cell are read once and shared by the whole ensemble, and the only
+ *  cost that grows with the ensemble is the cell updates and the output.
+ *
+ * @author michaelfrancenelson */
+public class EnsembleReducer extends ModelRunner implements DailyReducer {
+
+	/** Name of the output's member dimension for parameter ensembles. */
+	public static final String ENSEMBLE_DIMENSION = "ensemble";
+	/** Name of the output's member dimension for warming scenarios. */
+	public static final String SCENARIO_DIMENSION = "scenario";
+	/** Variable along the scenario dimension holding each scenario's warming, in degrees C. */
+	public static final String SCENARIO_OFFSET = "temperature_offset";
+
+	private final ModelParameters[] members;
+	private final DataCubeDaymet output;
+	private final int startYear;
+	private final double[] tempAdjust;
+
+	/**
+	 * @param output initialized cube with one layer per winter and member, see {@link #setMembers}
+	 * @param tempAdjust subtracted from every temperature, one per member; Daymet is in degrees C, so 0
+	 */
+	public EnsembleReducer(DataCubeDaymet output, ActiveCells cells, ModelParameters[] members, int startYear, double[] tempAdjust)
+	{
+		if (tempAdjust.length != members.length) throw new IllegalArgumentException("Each member needs a temperature adjustment");
+		this.output = output;
+		this.members = members;
+		data_cube = output;
+		activeCells = cells;
+		this.startYear = startYear;
+		this.tempAdjust = tempAdjust;
+		initializeDay = 180;
+		scoreDay = 150;
+		createCells();
+	}
+
+	/** An ensemble of parameter sets, all with the same temperatures. */
+	public EnsembleReducer(DataCubeDaymet output, ActiveCells cells, ModelParameters[] members, int startYear, double tempAdjust)
+	{
+		this(output, cells, members, startYear, filled(members.length, tempAdjust));
+	}
+
+	/** Warming scenarios with the default parameters.
+	 *  @param warming added to every temperature, one per scenario */
+	public static EnsembleReducer scenarios(DataCubeDaymet output, ActiveCells cells, int startYear, double[] warming)
+	{
+		ModelParameters[] members = new ModelParameters[warming.length];
+		double[] tempAdjust = new double[warming.length];
+		for (int i = 0; i < warming.length; i++)
+		{
+			members[i] = ModelParameters.DEFAULT;
+			tempAdjust[i] = -warming[i];
+		}
+		return new EnsembleReducer(output, cells, members, startYear, tempAdjust);
+	}
+
+	/** Add the ensemble dimension to an output cube, with each member's parameters; call before initializing it. */
+	public static void setMembers(DataCubeDaymet output, ModelParameters[] members)
+	{
+		Map<String, double[]> values = new LinkedHashMap<String, double[]>();
+		for (int i = 0; i < ModelParameters.NAMES.length; i++)
+		{
+			double[] column = new double[members.length];
+			for (int m = 0; m < members.length; m++) column[m] = members[m].toArray()[i];
+			values.put(ModelParameters.NAMES[i], column);
+		}
+		output.setMembers(ENSEMBLE_DIMENSION, members.length, values);
+	}
+
+	/** Add the scenario dimension to an output cube, with each scenario's warming; call before initializing it. */
+	public static void setScenarios(DataCubeDaymet output, double[] warming)
+	{
+		Map<String, double[]> values = new LinkedHashMap<String, double[]>();
+		values.put(SCENARIO_OFFSET, warming.clone());
+		output.setMembers(SCENARIO_DIMENSION, warming.length, values);
+	}
+
+	private static double[] filled(int n, double value)
+	{
+		double[] values = new double[n];
+		Arrays.fill(values, value);
+		return values;
+	}
+
+	/** Fresh states for every member of every active cell. */
+	@Override
+	public void createCells()
+	{
+		states = new CellStates(activeCells.size() * members.length);
+	}
+
+	@Override
+	public void beginYear(int year, TemperatureCube temperatures)
+	{
+		this.temperatures = temperatures;
+		if (year == startYear)
+			stepDays(year, initializeDay, Year.of(year).length(), 0);
+	}
+
+	@Override
+	public void accept(LocalDate date, float[] minTemps, float[] maxTemps)
+	{
+		int day = date.getDayOfYear();
+		if (day == scoreDay)
+		{
+			addLayers(date.getYear() - startYear);
+			states.reset();
+		}
+		if (day < date.lengthOfYear()) stepDay(date, minTemps, maxTemps, 0);
+	}
+
+	/** Write each member's survival as its own layer. */
+	private void addLayers(int layer)
+	{
+		int nMembers = members.length;
+		double[] survival = new double[activeCells.size()];
+		double[][] data = new double[activeCells.getNcols()][activeCells.getNrows()];
+		for (int m = 0; m < nMembers; m++)
+		{
+			for (int cell = 0, state = m; cell < survival.length; cell++, state += nMembers)
+				survival[cell] = states.survival[state];
+			output.addMemberLayer(layer, m, activeCells.toGrid(survival, data));
+		}
+	}
+
+	/** Update every member; each uses its own temperature adjustment, so the one passed is ignored. */
+	@Override
+	void stepDay(LocalDate today, float[] min_temps, float[] max_temps, double ignored)
+	{
+		RegniereBentzMPBCalculator.updateMembers(min_temps, max_temps, activeCells.getOffsets(), tempAdjust,
+				RegniereBentzMPBCalculator.gainOnly(today), RegniereBentzMPBCalculator.MISSING_DATA, members,
+				states.coldHardening, states.gain, states.loss, states.survival);
+	}
+
+	@Override
+	public void endYear(int year) { temperatures = null; }
+
+	@Override
+	public void finish() { output.writeOutputFile(); }
+}
@@ -0,0 +1,244 @@
+package main;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import main.TileScheduler.TileResult;
+import utils.ActiveCells;
+import utils.DataCubeDaymet;
+import utils.ModelParameters;
+import utils.OutputFormat;
+import utils.SeasonDiagnostics;
+import utils.TemperatureCube;
+import utils.TemperatureCubePrefetcher;
+
+/** Computes several products for a tile in one pass over its Daymet files. <br>
+ *  Each year is read once and every day's layers are handed to each {@link DailyReducer}
+ *  in turn, instead of DaymetRunner and DaymetMinTemps each reading the files again.
+ *  The outputs are the same as those programs write.
+ *
+ * @author michaelfrancenelson */
+public class FusedRunner {
+
+	/** Daymet files always hold 365 days; December 31 is dropped in leap years. */
+	static final int DAYS_PER_YEAR = 365;
+
+	final int tileID, startYear, endYear;
+	final String inputDataDirectory;
+
+	/** Read the temperatures a few days at a time rather than a whole year at once. */
+	boolean streamTemperatures;
+
+	/** A store of years converted by {@link ConvertTemperatures} to map instead of reading the NetCDF files, or null. */
+	String binaryDirectory;
+
+	/** Also write each winter's {@link SeasonDiagnostics} to the survival file of addSurvival(). */
+	boolean writeDiagnostics;
+
+	List<DailyReducer> reducers = new ArrayList<DailyReducer>();
+
+	public FusedRunner(int tileID, int startYear, int endYear, String inputDataDirectory)
+	{
+		this.tileID = tileID;
+		this.startYear = startYear;
+		this.endYear = endYear;
+		this.inputDataDirectory = inputDataDirectory;
+	}
+
+	public FusedRunner add(DailyReducer reducer)
+	{
+		reducers.add(reducer);
+		return this;
+	}
+
+	/** Add beetle survival, written as DaymetRunner does.
+	 *  @param format null for uncompressed NetCDF-3 doubles */
+	public FusedRunner addSurvival(String outputDirectory, OutputFormat format)
+	{
+		DataCubeDaymet output = new DataCubeDaymet();
+		output.setOutputFormat(format);
+		if (writeDiagnostics) SeasonDiagnostics.addVariables(output);
+		ActiveCells cells = output.initialize(templateFile(), outputFile(outputDirectory, "modeled_beetle_survival"), startYear, endYear);
+		SurvivalReducer survival = new SurvivalReducer(output, cells, startYear, 0);
+		if (writeDiagnostics) survival.withDiagnostics(output);
+		return add(survival);
+	}
+
+	/** Add beetle survival for each of an ensemble of parameter sets, in one file with an ensemble dimension. <br>
+	 *  The layers are written as they are scored, since the whole ensemble rarely fits in memory.
+	 *  @param format null for uncompressed NetCDF-3 doubles */
+	public FusedRunner addEnsemble(String outputDirectory, OutputFormat format, ModelParameters[] members)
+	{
+		DataCubeDaymet output = new DataCubeDaymet(true);
+		output.setOutputFormat(format);
+		EnsembleReducer.setMembers(output, members);
+		ActiveCells cells = output.initialize(templateFile(), outputFile(outputDirectory, "modeled_beetle_survival_ensemble"), startYear, endYear);
+		return add(new EnsembleReducer(output, cells, members, startYear, 0));
+	}
+
+	/** Add beetle survival under each of several warming scenarios, in one file with a scenario dimension. <br>
+	 *  Every scenario shares the one read of the temperatures.
+	 *  @param warming added to every temperature, in degrees C, one per scenario
+	 *  @param format null for uncompressed NetCDF-3 doubles */
+	public FusedRunner addScenarios(String outputDirectory, OutputFormat format, double[] warming)
+	{
+		DataCubeDaymet output = new DataCubeDaymet(true);
+		output.setOutputFormat(format);
+		EnsembleReducer.setScenarios(output, warming);
+		ActiveCells cells = output.initialize(templateFile(), outputFile(outputDirectory, "modeled_beetle_survival_scenarios"), startYear, endYear);
+		return add(EnsembleReducer.scenarios(output, cells, startYear, warming));
+	}
+
+	/** Add the annual minimum temperature, written as DaymetMinTemps does.
+	 *  @param format null for uncompressed NetCDF-3 doubles */
+	public FusedRunner addAnnualMin(String outputDirectory, OutputFormat format)
+	{
+		DataCubeDaymet output = new DataCubeDaymet();
+		output.setOutputFormat(format);
+		ActiveCells cells = output.initialize(templateFile(), outputFile(outputDirectory, "annual_tmin"), startYear, endYear,
+				"annual_tmin", "year", 0);
+		return add(new AnnualMinReducer(output, cells, startYear));
+	}
+
+	/** Add the winter minimum temperature, written as DaymetMinTemps does.
+	 *  @param format null for uncompressed NetCDF-3 doubles */
+	public FusedRunner addWinterMin(String outputDirectory, OutputFormat format)
+	{
+		DataCubeDaymet output = new DataCubeDaymet();
+		output.setOutputFormat(format);
+		ActiveCells cells = output.initialize(templateFile(), outputFile(outputDirectory, "winter_tmin"), startYear, endYear,
+				"winter_tmin", "winter_ending_in", 1);
+		return add(new WinterMinReducer(output, cells, startYear, endYear));
+	}
+
+	/** Read each year once, feed every day to every reducer, then write their outputs. */
+	public void run()
+	{
+		TemperatureCubePrefetcher years = new TemperatureCubePrefetcher(
+				(binaryDirectory != null)
+						? DaymetRunner.mappedLoader(binaryDirectory, tileID)
+						: DaymetRunner.daymetLoader(inputDataDirectory, tileID, streamTemperatures),
+				startYear, endYear, 1);
+		TemperatureCube temperatures = null;
+
+		try {
+			float[] min_temps = null, max_temps = null;
+			for (int year = startYear; year <= endYear; year++)
+			{
+				System.out.println("TileID: " + tileID + " year: " + year);
+				temperatures = years.next();
+				if (min_temps == null)
+				{
+					min_temps = new float[temperatures.getNcols() * temperatures.getNrows()];
+					max_temps = new float[min_temps.length];
+				}
+
+				for (DailyReducer r : reducers) r.beginYear(year, temperatures);
+				for (int day = 1; day <= DAYS_PER_YEAR; day++)
+				{
+					LocalDate date = LocalDate.ofYearDay(year, day);
+					temperatures.getMinOnDate(date, min_temps);
+					temperatures.getMaxOnDate(date, max_temps);
+					for (DailyReducer r : reducers) r.accept(date, min_temps, max_temps);
+				}
+				for (DailyReducer r : reducers) r.endYear(year);
+
+				temperatures.close();
+				temperatures = null;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			years.close();
+			try { if (temperatures != null) temperatures.close(); }
+			catch (IOException e) { e.printStackTrace(); }
+		}
+		System.out.println("TileID: " + tileID + " " + years);
+		for (DailyReducer r : reducers) r.finish();
+	}
+
+	/**
+	 * Run survival and the annual and winter minimums for every tile, several tiles at once.
+	 *
+	 * @param tilesDirectory contains one {tileID}/ directory of input files per tile
+	 * @return the success or failure of each tile
+	 */
+	public static List<TileResult> runTiles(int[] tiles, final int startYear, final int endYear, final String tilesDirectory,
+			final String survivalDirectory, final String annualMinDirectory, final String winterMinDirectory, TileScheduler scheduler)
+	{
+		List<TileResult> results = scheduler.runAll(tiles,
+				tile -> estimateMemory(tilesDirectory + tile + "/" + tile + "_" + startYear + "_tmin.nc", endYear - startYear + 1),
+				tile -> new FusedRunner(tile, startYear, endYear, tilesDirectory + tile + "/")
+						.addSurvival(survivalDirectory, null)
+						.addAnnualMin(annualMinDirectory, null)
+						.addWinterMin(winterMinDirectory, null)
+						.run());
+		TileScheduler.report(results);
+		return results;
+	}
+
+	/**
+	 * Rough heap needed by run() for one tile with the three standard products. <br>
+	 * As DaymetRunner, but with three output cubes.
+	 */
+	public static long estimateMemory(String tminFile, int nYears) throws IOException
+	{
+		int[] shape = TileScheduler.readGridShape(tminFile, "tmin");
+		long nCells = (long) shape[1] * shape[2];
+		long cube = shape[0] * nCells * 4;
+
+		/* Output cubes, plus cell states, masks, lat/lon and a few daily layers. */
+		return 6 * cube + 3 * (nYears + 1) * nCells * 8 + 24 * nCells * 8;
+	}
+
+	private String templateFile() { return inputDataDirectory + tileID + "_" + startYear + "_tmin.nc"; }
+
+	private String outputFile(String outputDirectory, String product)
+	{
+		return outputDirectory + tileID + "_" + startYear + "_" + endYear + "_" + product + ".nc";
+	}
+
+	/** @return the warming of each scenario from a list such as 0,1.5,3 */
+	static double[] parseWarming(String list)
+	{
+		String[] offsets = list.split(",");
+		double[] warming = new double[offsets.length];
+		for (int j = 0; j < offsets.length; j++) warming[j] = Double.parseDouble(offsets[j]);
+		return warming;
+	}
+
+	/* java -cp ... main.FusedRunner 10832 1980 2016 E:/Data/Daymet/Tiles/10832/ survival/ annual_tmin/ winter_tmin/ [-stream] [-diagnostics] [-ensemble members.csv] [-scenarios 0,1,2,3]
+	 * With -ensemble or -scenarios, the ensemble's or the warming scenarios' survival is written to the survival directory as well.
+	 * -diagnostics adds each winter's SeasonDiagnostics to the survival file.
+	 * -binary E:/Data/Daymet/Binary/ maps years converted by ConvertTemperatures instead of reading the NetCDF files.
+	 * -nc4, -float and -short choose the format of every output as for DaymetRunner; -short stores temperatures in hundredths of a degree. */
+	public static void main(String[] args) throws IOException
+	{
+		FusedRunner runner = new FusedRunner(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), args[3]);
+		String ensembleFile = null;
+		double[] warming = null;
+		boolean nc4 = false;
+		String packing = null;
+		for (int i = 7; i < args.length; i++)
+		{
+			if (args[i].equals("-stream")) runner.streamTemperatures = true;
+			else if (args[i].equals("-binary")) runner.binaryDirectory = args[++i];
+			else if (args[i].equals("-diagnostics")) runner.writeDiagnostics = true;
+			else if (args[i].equals("-ensemble")) ensembleFile = args[++i];
+			else if (args[i].equals("-nc4")) nc4 = true;
+			else if (args[i].equals("-float") || args[i].equals("-short")) packing = args[i];
+			else if (args[i].equals("-scenarios")) warming = parseWarming(args[++i]);
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		OutputFormat survivalFormat = OutputFormat.fromOptions(nc4, packing, OutputFormat.SURVIVAL_SCALE);
+		OutputFormat temperatureFormat = OutputFormat.fromOptions(nc4, packing, OutputFormat.TEMPERATURE_SCALE);
+		runner.addSurvival(args[4], survivalFormat).addAnnualMin(args[5], temperatureFormat).addWinterMin(args[6], temperatureFormat);
+		if (ensembleFile != null)
+			runner.addEnsemble(args[4], survivalFormat, ModelParameters.readCsv(ensembleFile).toArray(new ModelParameters[0]));
+		if (warming != null) runner.addScenarios(args[4], survivalFormat, warming);
+		runner.run();
+	}
+}
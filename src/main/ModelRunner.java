@@ -1,96 +1,233 @@
 package main;
 
 import java.time.LocalDate;
+import java.time.Year;
 
+import utils.ActiveCells;
 import utils.Cell;
+import utils.CellSeries;
+import utils.CellStates;
 import utils.DataCube;
+import utils.PhaseEvent;
+import utils.RegniereBentzMPBCalculator;
+import utils.RunStatistics;
+import utils.RunStatistics.Phase;
+import utils.SeasonDiagnostics;
 import utils.TemperatureCube;
 
 public class ModelRunner {
 
-	Cell[][] cells;
-	int[][] mask;
+	/** One state per active cell, in the order of activeCells. */
+	CellStates states;
+	ActiveCells activeCells;
 	TemperatureCube temperatures;
 
 	DataCube data_cube;
 
 	int initializeDay, scoreDay;
 
+	/** Timing of the run's phases, or null to leave the run untimed. */
+	RunStatistics stats;
+
+	/** Run each block of cells through the whole run of days before the next, from a
+	 *  {@link CellSeries} copy of the year, instead of advancing every cell a day at a time.
+	 *  Gives the same results. */
+	boolean cellMajor;
+
+	/** Summaries of each winter beyond survival, accumulated day by day and scored with the
+	 *  cells, or null. Runs with diagnostics step a day at a time even if cellMajor is set. */
+	SeasonDiagnostics diagnostics;
+
+	/* The cell-major copy of the temperatures, kept until the end of its year is reached. */
+	private CellSeries series;
+	private TemperatureCube seriesSource;
+
 
 	/**
-	 * 
+	 * Run the cells from startDay through December 30 of the year. <br>
+	 * If scoreDay falls in that window the survival scores are gathered
+	 * and the cells are reset when it is reached.
+	 *
 	 * @param year
-	 * @param weather
-	 * @param cells
 	 * @param tempAdjust
 	 * @param startDay
 	 * @param scoreDay
-	 * @return
+	 * @return survival on scoreDay, NaN for masked cells
 	 */
 	public double[][] stepYear(
-			int year, 
-			double tempAdjust, 
+			int year,
+			double tempAdjust,
 			int startDay,
 			int scoreDay
 			)
 	{
-		LocalDate today = LocalDate.ofYearDay(year, startDay);
-
-		/* End date is December 31. */
-		LocalDate endDate = LocalDate.of(year, 1, 1).plusYears(1).minusDays(1);
-
 		int n_col = temperatures.getNcols();
 		int n_row = temperatures.getNrows();
 
-		double[][] min_daily_layer;
-		double[][] max_daily_layer;
+		/* End day is December 31, which is not itself simulated. */
+		int endDay = Year.of(year).length();
 
 		/* TODO Why are columns first? */
 		double[][] data = new double[n_col][n_row];
 
-		while(today.isBefore(endDate)){
+		if (scoreDay > startDay && scoreDay <= endDay)
+		{
+			stepDays(year, startDay, scoreDay, tempAdjust);
+
+			/* Gather the survival scores, it is score day.*/
+			scoreCells(data);
+			if (diagnostics != null) diagnostics.score(year);
+			states.reset();
+
+			stepDays(year, scoreDay, endDay, tempAdjust);
+		}
+		else stepDays(year, startDay, endDay, tempAdjust);
+		return data;
+	}
+
+	/**
+	 * Run a single winter from freshly reset cells, independently of any other winter. <br>
+	 * Because the cells are reset on scoreDay, this gives the same survival scores as
+	 * running stepYear() over every year in turn.
+	 *
+	 * @param previous temperatures for the year the winter starts in
+	 * @param previousYear the year the winter starts in, normally year - 1
+	 * @param previousStartDay first day of previousYear to simulate
+	 * @param current temperatures for the year the winter ends in
+	 * @param year the year the winter ends in
+	 * @param tempAdjust
+	 * @param scoreDay
+	 * @return survival on scoreDay, NaN for masked cells
+	 */
+	public double[][] stepWinter(
+			TemperatureCube previous,
+			int previousYear,
+			int previousStartDay,
+			TemperatureCube current,
+			int year,
+			double tempAdjust,
+			int scoreDay
+			)
+	{
+		createCells();
+		if (diagnostics != null) diagnostics.reset();
+
+		temperatures = previous;
+		stepDays(previousYear, previousStartDay, Year.of(previousYear).length(), tempAdjust);
+
+		temperatures = current;
+		stepDays(year, 1, scoreDay, tempAdjust);
+
+		double[][] data = new double[activeCells.getNcols()][activeCells.getNrows()];
+		scoreCells(data);
+		if (diagnostics != null) diagnostics.score(year);
+		return data;
+	}
+
+	/** Copy the cells' survival into data, NaN for masked cells. */
+	void scoreCells(double[][] data)
+	{
+		activeCells.toGrid(states.survival, data);
+	}
+
+	/** Update the cells with each day of the year from startDay up to, but not including, endDay. */
+	void stepDays(int year, int startDay, int endDay, double tempAdjust)
+	{
+		if (cellMajor && diagnostics == null)
+		{
+			stepSeries(year, startDay, endDay, tempAdjust);
+			return;
+		}
+
+		int n_col = temperatures.getNcols();
+		int n_row = temperatures.getNrows();
+
+		/* Today's layers, reused from day to day. */
+		float[] min_temps = new float[n_col * n_row];
+		float[] max_temps = new float[n_col * n_row];
 
-			min_daily_layer = temperatures.getMinOnDate(today);
-			max_daily_layer = temperatures.getMaxOnDate(today);
+		/* Copying layers and updating cells alternate, so each is timed day by day. */
+		PhaseEvent layerEvent = null, updateEvent = null;
+		if (stats != null)
+		{
+			layerEvent = stats.begin(Phase.LAYERS, year);
+			updateEvent = stats.begin(Phase.UPDATE, year);
+		}
+		long layerNanos = 0, updateNanos = 0;
+		int nDays = 0;
 
-			/* Update the cells' temperatures to today's value */
-			for(int col = 0; col < n_col; col++) for(int row = 0; row < n_row; row++)
-				if (cells[col][row] != null)
-				{
-					//					double[] temps = new double[]{(double)min_daily_layer[col][row] - tempAdjust, (double)max_daily_layer[col][row] - tempAdjust};
-					double[] temps = new double[]{(double)min_daily_layer[col][row] - tempAdjust, (double)max_daily_layer[col][row] - tempAdjust};
-					cells[col][row].updateDaily(temps, today);
-				}
+		LocalDate today = LocalDate.ofYearDay(year, startDay);
+		while(today.getYear() == year && today.getDayOfYear() < endDay){
+
+			long start = System.nanoTime();
+			temperatures.getMinOnDate(today, min_temps);
+			temperatures.getMaxOnDate(today, max_temps);
+			long copied = System.nanoTime();
+			stepDay(today, min_temps, max_temps, tempAdjust);
+			layerNanos += copied - start;
+			updateNanos += System.nanoTime() - copied;
+			nDays++;
 
 			today = today.plusDays(1);
+		}
 
-			/* Gather the survival scores if it is score day.*/
-			if(today.getDayOfYear() == scoreDay)
-			{
-				for(int col = 0; col < n_col; col++) for(int row = 0; row < n_row; row++)
-					if (cells[col][row] != null)
-					{
-						data[col][row] = cells[col][row].state[3];
-						cells[col][row].reset();
-					}
-					else data[col][row] = Double.NaN;
-			}
+		if (stats != null)
+		{
+			stats.end(layerEvent, layerNanos, 0, 0);
+			stats.end(updateEvent, updateNanos, (long) nDays * activeCells.size(), 0);
 		}
-		return data;
 	}
 
-	public void createCells(int nCol, int nRow)
+	/** stepDays() for cellMajor runs. The year is rearranged on its first use and reused by later
+	 *  calls for the same temperatures, such as the one after scoreDay. */
+	void stepSeries(int year, int startDay, int endDay, double tempAdjust)
 	{
-		cells = new Cell[nCol][nRow];
-//		mask = new int[nCol][nRow];
-		for(int col = 0; col < nCol; col++) for(int row = 0; row < nRow; row++)
+		PhaseEvent event = (stats == null) ? null : stats.begin(Phase.LAYERS, year);
+		long start = System.nanoTime();
+		if (series == null || seriesSource != temperatures || series.year != year || series.firstDay > startDay)
+		{
+			series = null;
+			series = new CellSeries(temperatures, activeCells, year, startDay);
+			seriesSource = temperatures;
+		}
+		if (stats != null)
 		{
-			if (mask[col][row] == 0) 
-				cells[col][row] = new Cell();
-			else 
-				cells[col][row] = null;
+			stats.end(event, System.nanoTime() - start, 0, 0);
+			event = stats.begin(Phase.UPDATE, year);
+			start = System.nanoTime();
 		}
+
+		int first = startDay - series.firstDay;
+		int end = Math.min(endDay - series.firstDay, series.nDays);
+		RegniereBentzMPBCalculator.updateSeries(series, first, Math.max(first, end), tempAdjust,
+				RegniereBentzMPBCalculator.MISSING_DATA, states);
+		if (end >= series.nDays) { series = null; seriesSource = null; }
+
+		if (stats != null)
+			stats.end(event, System.nanoTime() - start, (long) Math.max(0, end - first) * activeCells.size(), 0);
+	}
+
+	/** Update the active cells with one day's flat layers of temperatures. */
+	void stepDay(LocalDate today, float[] min_temps, float[] max_temps, double tempAdjust)
+	{
+		RegniereBentzMPBCalculator.updateStates(min_temps, max_temps, activeCells, tempAdjust,
+				RegniereBentzMPBCalculator.gainOnly(today), RegniereBentzMPBCalculator.MISSING_DATA, states);
+		if (diagnostics != null)
+			diagnostics.accept(today, min_temps, max_temps, tempAdjust, RegniereBentzMPBCalculator.MISSING_DATA, states);
 	}
 
+	/** Fresh states for the active cells. */
+	public void createCells()
+	{
+		states = new CellStates(activeCells.size());
+	}
+
+	/** @return a view of the cell's state, or null if the cell is masked. */
+	public Cell getCell(int col, int row)
+	{
+		int index = activeCells.indexOf(col, row);
+		if (index < 0) return null;
+		return new Cell(states, index);
+	}
 
 }
@@ -0,0 +1,233 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import utils.ActiveCells;
+import utils.TemperatureCube;
+import utils.TemperatureCubePoints;
+import utils.TileLocator;
+
+/** Survival at a list of sites, without running whole tiles. <br>
+ *  Each site is matched to the nearest cell of a tile from the tiles' lat/lon arrays. Only those
+ *  cells' tmin and tmax series are read, with sectioned reads, into a small cube holding one
+ *  column per site, which is then run exactly as {@link DaymetRunner#run} runs a tile. The
+ *  survival of a site is the same as the survival of its cell in the tile's output.
+ *
+ * @author michaelfrancenelson */
+public class PointQuery extends ModelRunner {
+
+	/** Daymet files always hold 365 days; December 31 is dropped in leap years. */
+	static final int DAYS_PER_YEAR = 365;
+
+	/** A field site and the cell it falls in. */
+	public static class Site {
+		public final String id;
+		public final double lat, lon;
+
+		/* -1 until located, or if the site is on no tile. */
+		int tile = -1, col, row;
+
+		public Site(String id, double lat, double lon)
+		{
+			this.id = id;
+			this.lat = lat;
+			this.lon = lon;
+		}
+
+		public int getTile() { return tile; }
+	}
+
+	final String tilesDirectory;
+	final int[] tiles;
+	final int startYear, endYear;
+
+	/**
+	 * @param tilesDirectory contains one {tileID}/ directory of input files per tile
+	 * @param tiles the tiles to search, in order of preference where they overlap
+	 */
+	public PointQuery(String tilesDirectory, int[] tiles, int startYear, int endYear)
+	{
+		this.tilesDirectory = tilesDirectory;
+		this.tiles = tiles;
+		this.startYear = startYear;
+		this.endYear = endYear;
+	}
+
+	/** Find each site's tile and cell. Sites on no tile, or in a cell without data, are left unlocated. */
+	public void locate(List<Site> sites) throws IOException
+	{
+		for (int tile : tiles)
+		{
+			TileLocator locator = null;
+			for (Site site : sites)
+			{
+				if (site.tile >= 0) continue;
+				if (locator == null) locator = new TileLocator(inputFile(tile, startYear, "tmin"));
+				int[] cell = locator.locate(site.lat, site.lon);
+				if (cell == null) continue;
+				site.tile = tile;
+				site.col = cell[0];
+				site.row = cell[1];
+			}
+		}
+	}
+
+	/**
+	 * Run the model for the sites.
+	 *
+	 * @param sites located with locate()
+	 * @return survival of each site in each winter, ending in startYear + 1 onwards; NaN for unlocated sites
+	 */
+	public double[][] run(List<Site> sites) throws IOException
+	{
+		int nSites = sites.size();
+		int nYears = endYear - startYear + 1;
+
+		BitSet located = new BitSet(nSites);
+		for (int i = 0; i < nSites; i++) if (sites.get(i).tile >= 0) located.set(i);
+		activeCells = new ActiveCells(nSites, 1, located);
+		createCells();
+
+		double[][] survival = new double[nSites][nYears];
+		double tempAdjust = 0;
+		scoreDay = 150;
+
+		try {
+			/* Prime the cells' states from the start year, as DaymetRunner does. */
+			temperatures = readYear(sites, startYear);
+			initializeDay = 180;
+			stepYear(startYear, tempAdjust, initializeDay, scoreDay);
+
+			initializeDay = 1;
+			for (int i = 0; i < nYears; i++)
+			{
+				if (i > 0) temperatures = readYear(sites, startYear + i);
+				double[][] data = stepYear(startYear + i, tempAdjust, initializeDay, scoreDay);
+				for (int site = 0; site < nSites; site++) survival[site][i] = data[site][0];
+			}
+		} finally { temperatures = null; }
+		return survival;
+	}
+
+	/** Read one year of the located sites' series, opening each tile's files once. */
+	TemperatureCube readYear(List<Site> sites, int year) throws IOException
+	{
+		TemperatureCubePoints cube = new TemperatureCubePoints(sites.size(), DAYS_PER_YEAR, year);
+
+		Map<Integer, List<Integer>> byTile = new LinkedHashMap<Integer, List<Integer>>();
+		for (int i = 0; i < sites.size(); i++)
+		{
+			int tile = sites.get(i).tile;
+			if (tile < 0) continue;
+			if (!byTile.containsKey(tile)) byTile.put(tile, new ArrayList<Integer>());
+			byTile.get(tile).add(i);
+		}
+
+		for (Map.Entry<Integer, List<Integer>> tile : byTile.entrySet())
+		{
+			NetcdfFile minFile = NetcdfFile.open(inputFile(tile.getKey(), year, "tmin"));
+			try {
+				NetcdfFile maxFile = NetcdfFile.open(inputFile(tile.getKey(), year, "tmax"));
+				try {
+					Variable tmin = minFile.findVariable("tmin"), tmax = maxFile.findVariable("tmax");
+					int nDays = tmin.getShape()[0];
+					for (int i : tile.getValue())
+					{
+						Site site = sites.get(i);
+						int[] origin = new int[] { 0, site.col, site.row };
+						int[] shape = new int[] { nDays, 1, 1 };
+						cube.setSeries(i,
+								(float[]) tmin.read(origin, shape).get1DJavaArray(float.class),
+								(float[]) tmax.read(origin, shape).get1DJavaArray(float.class));
+					}
+				} finally { maxFile.close(); }
+			} catch (InvalidRangeException e) {
+				throw new IllegalStateException(e);
+			} finally { minFile.close(); }
+		}
+		return cube;
+	}
+
+	private String inputFile(int tile, int year, String variable)
+	{
+		return tilesDirectory + tile + "/" + tile + "_" + year + "_" + variable + ".nc";
+	}
+
+	/** Read sites from a CSV file with an id, latitude and longitude on each line, after a header line. */
+	public static List<Site> readSites(String filename) throws IOException
+	{
+		List<Site> sites = new ArrayList<Site>();
+		List<String> lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+		for (int i = 1; i < lines.size(); i++)
+		{
+			String line = lines.get(i).trim();
+			if (line.isEmpty()) continue;
+			String[] fields = line.split(",");
+			if (fields.length < 3) throw new IOException(filename + " line " + (i + 1) + " needs an id, lat and lon");
+			sites.add(new Site(fields[0].trim(), Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim())));
+		}
+		return sites;
+	}
+
+	/** Write one line per site and winter; sites on no tile are listed with an empty survival. */
+	public void writeResults(String filename, List<Site> sites, double[][] survival) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(filename, "UTF-8")) {
+			out.println("id,lat,lon,tile,y,x,winter_ending_in,percent_survival");
+			for (int i = 0; i < sites.size(); i++)
+			{
+				Site site = sites.get(i);
+				for (int year = 0; year < survival[i].length; year++)
+				{
+					out.print(String.format(Locale.ROOT, "%s,%s,%s,", site.id, site.lat, site.lon));
+					if (site.tile < 0) out.println(",,," + (startYear + year + 1) + ",");
+					else out.println(site.tile + "," + site.col + "," + site.row + "," + (startYear + year + 1) + "," + survival[i][year]);
+				}
+			}
+		}
+	}
+
+	/* java -cp ... main.PointQuery sites.csv 1980 2016 E:/Data/Daymet/Tiles/ survival_at_sites.csv [tile ...]
+	 * Without a list of tiles, every tile directory is searched. */
+	public static void main(String[] args) throws IOException
+	{
+		String tilesDirectory = args[3];
+		int[] tiles;
+		if (args.length > 5)
+		{
+			tiles = new int[args.length - 5];
+			for (int i = 5; i < args.length; i++) tiles[i - 5] = Integer.parseInt(args[i]);
+		}
+		else
+		{
+			File[] listOfFiles = new File(tilesDirectory).listFiles(File::isDirectory);
+			tiles = new int[listOfFiles.length];
+			for (int i = 0; i < listOfFiles.length; i++) tiles[i] = Integer.parseInt(listOfFiles[i].getName());
+		}
+
+		PointQuery query = new PointQuery(tilesDirectory, tiles, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+		List<Site> sites = readSites(args[0]);
+		long start = System.nanoTime();
+		query.locate(sites);
+		long located = System.nanoTime();
+		double[][] survival = query.run(sites);
+		long finished = System.nanoTime();
+		query.writeResults(args[4], sites, survival);
+		System.out.println(String.format(Locale.ROOT, "%d sites: located in %.3f s, run in %.3f s",
+				sites.size(), (located - start) * 1e-9, (finished - located) * 1e-9));
+	}
+}
@@ -0,0 +1,81 @@
+package main;
+
+import java.time.LocalDate;
+import java.time.Year;
+
+import utils.ActiveCells;
+import utils.DataCube;
+import utils.DataCubeDaymet;
+import utils.SeasonDiagnostics;
+import utils.TemperatureCube;
+
+/** Beetle survival as a {@link DailyReducer}, scored the same way as {@link DaymetRunner#run}. <br>
+ *  The cells are primed from initializeDay of the start year, then every year runs from
+ *  January 1, scoring and resetting the cells on scoreDay. December 31 is never simulated.
+ *
+ * @author michaelfrancenelson */
+public class SurvivalReducer extends ModelRunner implements DailyReducer {
+
+	private final int startYear;
+	private final double tempAdjust;
+
+	/* Where the diagnostics are written, if there are any. */
+	private DataCubeDaymet diagnosticsOutput;
+
+	/**
+	 * @param output initialized cube with one layer per winter, starting with the winter ending in startYear
+	 * @param tempAdjust subtracted from every temperature; Daymet is in degrees C, so 0
+	 */
+	public SurvivalReducer(DataCube output, ActiveCells cells, int startYear, double tempAdjust)
+	{
+		data_cube = output;
+		activeCells = cells;
+		this.startYear = startYear;
+		this.tempAdjust = tempAdjust;
+		initializeDay = 180;
+		scoreDay = 150;
+		createCells();
+	}
+
+	/** Also write each winter's {@link SeasonDiagnostics} to an output, normally the survival's own.
+	 *  @param output set up with {@link SeasonDiagnostics#addVariables} and initialized */
+	public SurvivalReducer withDiagnostics(DataCubeDaymet output)
+	{
+		diagnostics = new SeasonDiagnostics(activeCells);
+		diagnosticsOutput = output;
+		return this;
+	}
+
+	@Override
+	public void beginYear(int year, TemperatureCube temperatures)
+	{
+		this.temperatures = temperatures;
+
+		/* Prime the cells' states from the start year's own summer and fall, out of the
+		 * cube already in memory, before running the year from January 1. */
+		if (year == startYear)
+			stepDays(year, initializeDay, Year.of(year).length(), tempAdjust);
+	}
+
+	@Override
+	public void accept(LocalDate date, float[] minTemps, float[] maxTemps)
+	{
+		int day = date.getDayOfYear();
+		if (day == scoreDay)
+		{
+			double[][] data = new double[activeCells.getNcols()][activeCells.getNrows()];
+			scoreCells(data);
+			if (diagnostics != null) diagnostics.score(date.getYear());
+			states.reset();
+			data_cube.addDataLayer(date.getYear() - startYear, data);
+			if (diagnostics != null) diagnostics.addLayers(diagnosticsOutput, date.getYear() - startYear);
+		}
+		if (day < date.lengthOfYear()) stepDay(date, minTemps, maxTemps, tempAdjust);
+	}
+
+	@Override
+	public void endYear(int year) { temperatures = null; }
+
+	@Override
+	public void finish() { data_cube.writeOutputFile(); }
+}
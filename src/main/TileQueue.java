@@ -0,0 +1,373 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import main.TileScheduler.TileResult;
+import main.TileScheduler.TileTask;
+
+/** A list of tiles drained together by any number of workers, in any number of JVMs on any number
+ *  of hosts, that share a directory, such as an NFS volume. There is no coordinator. <br>
+ *  A worker claims a tile by creating its lease file, {tile}.lease, which only one worker can do.
+ *  While the tile runs, the worker renews the lease by touching it. A lease left untouched for
+ *  longer than the expiry belonged to a worker that died, and the next worker to see it breaks it
+ *  and runs the tile again, first checking that the lease it moved aside is still the one it
+ *  judged stale and not a newer one. A finished tile gets a {tile}.done marker, or {tile}.failed
+ *  holding the error, and is skipped from then on; delete its .failed marker to try it again. <br>
+ *  Expiry is judged by how long a lease has gone unchanged on the observer's own clock, so the
+ *  hosts' clocks need not agree. The expiry should be well above the heartbeat, the file system's
+ *  attribute caching, and the longest pause of a worker, since a paused worker whose lease has
+ *  been broken finishes its tile anyway, and the tile is then run twice.
+ *
+ * @author michaelfrancenelson */
+public class TileQueue {
+
+	/** Default time a lease may go untouched before it is broken. */
+	public static final long DEFAULT_EXPIRY_MILLIS = 10 * 60 * 1000;
+
+	private final Path directory;
+	private final long expiryMillis;
+	/** Unique to this queue object, which normally means to this JVM. */
+	private final String workerID;
+
+	/* Tiles whose leases are held here, renewed by the heartbeat. */
+	private final Set<Integer> held = Collections.synchronizedSet(new HashSet<Integer>());
+	/* Other workers' leases, as last seen here. */
+	private final Map<Integer, Sighting> observed = new HashMap<Integer, Sighting>();
+
+	/** A lease as seen by this worker: its owner, its modification time, and when it was first seen
+	 *  like that, by System.nanoTime(). */
+	private static class Sighting {
+		final String owner;
+		final long modified, since;
+
+		Sighting(String owner, long modified, long since) { this.owner = owner; this.modified = modified; this.since = since; }
+
+		boolean sameLease(String owner, long modified) { return this.owner.equals(owner) && this.modified == modified; }
+	}
+
+	/**
+	 * @param directory where the lease files and markers are kept; created if needed
+	 * @param expiryMillis how long a lease may go untouched before it is broken
+	 */
+	public TileQueue(String directory, long expiryMillis) throws IOException
+	{
+		this.directory = Paths.get(directory);
+		this.expiryMillis = expiryMillis;
+		Files.createDirectories(this.directory);
+		workerID = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	public String getWorkerID() { return workerID; }
+
+	private Path lease(int tile) { return directory.resolve(tile + ".lease"); }
+
+	private Path done(int tile) { return directory.resolve(tile + ".done"); }
+
+	private Path failed(int tile) { return directory.resolve(tile + ".failed"); }
+
+	/** @return true if the tile has been finished, successfully or not, by any worker */
+	public boolean isFinished(int tile)
+	{
+		return Files.exists(done(tile)) || Files.exists(failed(tile));
+	}
+
+	/**
+	 * Try to take a tile. <br>
+	 * Fails if the tile is finished, or leased by a worker that is still renewing its lease.
+	 *
+	 * @return true if this worker now holds the tile's lease and should run it
+	 */
+	public boolean claim(int tile) throws IOException
+	{
+		if (isFinished(tile)) return false;
+		Path lease = lease(tile);
+		if (!create(lease))
+		{
+			Sighting stale = expired(tile);
+			if (stale == null) return false;
+
+			/* Move the stale lease aside before deleting it; only one worker's move can succeed. */
+			Path broken = directory.resolve(tile + ".lease." + workerID);
+			try { Files.move(lease, broken, StandardCopyOption.ATOMIC_MOVE); }
+			catch (NoSuchFileException e) { return false; }
+			synchronized (observed) { observed.remove(tile); }
+
+			/* Another worker may have broken the stale lease and taken its own since it was judged
+			 * stale here, in which case the live lease was moved aside and goes back. */
+			if (!stale.sameLease(read(broken), Files.getLastModifiedTime(broken).toMillis()))
+			{
+				restore(broken, lease);
+				return false;
+			}
+			System.out.println("Tile " + tile + ": breaking the expired lease of " + stale.owner);
+			Files.deleteIfExists(broken);
+			if (!create(lease)) return false;
+		}
+
+		/* Finished between the check above and taking the lease. */
+		if (isFinished(tile))
+		{
+			release(tile);
+			return false;
+		}
+		held.add(tile);
+		return true;
+	}
+
+	/** Create a lease file naming this worker, if there is none. */
+	private boolean create(Path lease) throws IOException
+	{
+		try {
+			Files.write(lease, workerID.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			return true;
+		} catch (FileAlreadyExistsException e) { return false; }
+	}
+
+	/** Put back a lease moved aside by mistake, unless a new lease has been created meanwhile. <br>
+	 *  A link, unlike a move, never replaces the new lease. Its owner finds its lease gone at its
+	 *  next heartbeat and warns. */
+	private static void restore(Path broken, Path lease) throws IOException
+	{
+		try { Files.createLink(lease, broken); }
+		catch (FileAlreadyExistsException e) { /* Taken over by the new lease. */ }
+		catch (UnsupportedOperationException e)
+		{
+			try { Files.move(broken, lease); }
+			catch (FileAlreadyExistsException e2) { /* Taken over by the new lease. */ }
+		}
+		Files.deleteIfExists(broken);
+	}
+
+	/** @return how another worker's lease on the tile was first seen, if it has gone unchanged
+	 *  for longer than the expiry since; otherwise null */
+	private Sighting expired(int tile) throws IOException
+	{
+		String owner;
+		FileTime modified;
+		try {
+			owner = read(lease(tile));
+			modified = Files.getLastModifiedTime(lease(tile));
+		} catch (NoSuchFileException e) { return null; }
+
+		long now = System.nanoTime();
+		synchronized (observed)
+		{
+			Sighting seen = observed.get(tile);
+			if (seen == null || !seen.sameLease(owner, modified.toMillis()))
+			{
+				observed.put(tile, new Sighting(owner, modified.toMillis(), now));
+				return null;
+			}
+			return (now - seen.since > expiryMillis * 1000000L) ? seen : null;
+		}
+	}
+
+	/** Renew every lease held here. A lease that has gone missing is created again, since no other
+	 *  worker holds the tile yet. A lease taken by another worker is dropped with a warning. */
+	void heartbeat()
+	{
+		Integer[] tiles;
+		synchronized (held) { tiles = held.toArray(new Integer[0]); }
+		for (int tile : tiles)
+		{
+			try {
+				String owner;
+				try { owner = read(lease(tile)); }
+				catch (NoSuchFileException e) { owner = create(lease(tile)) ? workerID : read(lease(tile)); }
+				if (!workerID.equals(owner)) throw new NoSuchFileException(lease(tile).toString());
+				Files.setLastModifiedTime(lease(tile), FileTime.fromMillis(System.currentTimeMillis()));
+			} catch (NoSuchFileException e) {
+				held.remove(tile);
+				System.out.println("Tile " + tile + ": lease lost, another worker may be running it");
+			} catch (IOException e) {
+				System.out.println("Tile " + tile + ": could not renew lease: " + e);
+			}
+		}
+	}
+
+	private static String read(Path file) throws IOException
+	{
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Mark a tile held here as finished and give up its lease. Marking a tile twice is harmless.
+	 *
+	 * @param error null if the tile succeeded, otherwise recorded in its .failed marker
+	 */
+	public void complete(int tile, Throwable error) throws IOException
+	{
+		Path marker = (error == null) ? done(tile) : failed(tile);
+		String text = workerID + ((error == null) ? "" : "\n" + error);
+
+		/* Written beside the marker and moved into place, so a marker is never seen half written. */
+		Path temp = directory.resolve(marker.getFileName() + "." + workerID);
+		Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		release(tile);
+	}
+
+	/** Give up a tile's lease without finishing it, so another worker can run it. */
+	public void release(int tile) throws IOException
+	{
+		held.remove(tile);
+		try {
+			if (workerID.equals(read(lease(tile)))) Files.deleteIfExists(lease(tile));
+		} catch (NoSuchFileException e) { /* Already broken by another worker. */ }
+	}
+
+	/**
+	 * Run tiles from the list on this JVM until every tile has been finished by some worker. <br>
+	 * Each of the threads claims the next tile it can, in the order given, runs it and marks it
+	 * finished. When nothing is left to claim, the threads wait for the other workers' tiles,
+	 * taking over any whose leases expire.
+	 *
+	 * @param nThreads number of tiles to run at once on this JVM
+	 * @return the results of the tiles run here
+	 */
+	public List<TileResult> drain(final int[] tiles, final TileTask task, int nThreads)
+	{
+		ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lease heartbeat");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1, expiryMillis / 4);
+		heartbeat.scheduleAtFixedRate(this::heartbeat, period, period, TimeUnit.MILLISECONDS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		final List<TileResult> results = Collections.synchronizedList(new ArrayList<TileResult>());
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int i = 0; i < nThreads; i++)
+			workers.add(executor.submit(() -> {
+				work(tiles, task, results);
+				return null;
+			}));
+		executor.shutdown();
+
+		try {
+			for (Future<?> worker : workers) worker.get();
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while draining tiles", e);
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			throw new IllegalStateException("Could not use the queue in " + directory, e.getCause());
+		} finally {
+			heartbeat.shutdownNow();
+		}
+		return results;
+	}
+
+	/** One thread of drain(). */
+	private void work(int[] tiles, TileTask task, List<TileResult> results) throws IOException, InterruptedException
+	{
+		while (true)
+		{
+			boolean unfinished = false, ran = false;
+			for (int tile : tiles)
+			{
+				if (isFinished(tile)) continue;
+				unfinished = true;
+				if (!claim(tile)) continue;
+
+				long start = System.currentTimeMillis();
+				Throwable error = null;
+				try { task.run(tile); }
+				catch (Throwable t) { error = t; }
+				complete(tile, error);
+				TileResult result = new TileResult(tile, -1, System.currentTimeMillis() - start, error);
+				System.out.println(result);
+				results.add(result);
+				ran = true;
+				break;
+			}
+			if (!unfinished) return;
+			/* Everything left is leased elsewhere; check again for finished and expired tiles later. */
+			if (!ran) Thread.sleep(Math.max(10, Math.min(expiryMillis / 4, 30000)));
+		}
+	}
+
+	/** Print how many of the tiles are done, failed, leased and waiting. */
+	public void report(int[] tiles)
+	{
+		int done = 0, failed = 0, leased = 0;
+		for (int tile : tiles)
+		{
+			if (Files.exists(done(tile))) done++;
+			else if (Files.exists(failed(tile))) failed++;
+			else if (Files.exists(lease(tile))) leased++;
+		}
+		System.out.println(tiles.length + " tiles: " + done + " done, " + failed + " failed, "
+				+ leased + " leased, " + (tiles.length - done - failed - leased) + " waiting");
+	}
+
+	/* java -cp ... main.TileQueue 1980 2016 E:/Data/Daymet/Tiles/ E:/Data/Daymet/daymet_output/ [-threads 4] [-expiry 600] [tile ...]
+	 * Runs DaymetRunner on the tiles, sharing them with every other worker started with the same output directory,
+	 * whose queue/ directory holds the leases and markers. Without a list of tiles, every tile directory is run.
+	 * -expiry is in seconds. */
+	public static void main(String[] args) throws IOException
+	{
+		final int startYear = Integer.parseInt(args[0]);
+		final int endYear = Integer.parseInt(args[1]);
+		final String tilesDirectory = args[2];
+		final String outputDirectory = args[3];
+		int nThreads = 1;
+		long expiryMillis = DEFAULT_EXPIRY_MILLIS;
+		List<Integer> tileList = new ArrayList<Integer>();
+		for (int i = 4; i < args.length; i++)
+		{
+			if (args[i].equals("-threads")) nThreads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-expiry")) expiryMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+			else if (args[i].matches("\\d+")) tileList.add(Integer.parseInt(args[i]));
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+
+		int[] tiles;
+		if (tileList.isEmpty())
+		{
+			File[] listOfFiles = new File(tilesDirectory).listFiles(File::isDirectory);
+			tiles = new int[listOfFiles.length];
+			for (int i = 0; i < listOfFiles.length; i++) tiles[i] = Integer.parseInt(listOfFiles[i].getName());
+		}
+		else
+		{
+			tiles = new int[tileList.size()];
+			for (int i = 0; i < tiles.length; i++) tiles[i] = tileList.get(i);
+		}
+
+		TileQueue queue = new TileQueue(outputDirectory + "queue/", expiryMillis);
+		System.out.println("Worker " + queue.getWorkerID());
+		List<TileResult> results = queue.drain(tiles,
+				tile -> new DaymetRunner().run(tile, startYear, endYear, tilesDirectory + tile + "/", outputDirectory),
+				nThreads);
+		TileScheduler.report(results);
+		queue.report(tiles);
+	}
+}
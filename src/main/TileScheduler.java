@@ -0,0 +1,151 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/** Runs many Daymet tiles at once on a bounded pool of workers. <br>
+ *  A tile is only started when its estimated memory footprint fits in what
+ *  is left of the heap budget; a tile larger than the whole budget is run alone. <br>
+ *  Each tile's success or failure is reported rather than stopping the run.
+ *
+ * @author michaelfrancenelson */
+public class TileScheduler {
+
+	/** The work to do for one tile. */
+	public interface TileTask { void run(int tileID) throws Exception; }
+
+	/** Estimated heap needed, in bytes, to run one tile. */
+	public interface TileFootprint { long estimate(int tileID) throws IOException; }
+
+	public static class TileResult {
+		public final int tileID;
+		public final long estimatedBytes;
+		public final long elapsedMillis;
+		/** Null if the tile succeeded. */
+		public final Throwable error;
+
+		TileResult(int tileID, long estimatedBytes, long elapsedMillis, Throwable error)
+		{
+			this.tileID = tileID; this.estimatedBytes = estimatedBytes;
+			this.elapsedMillis = elapsedMillis; this.error = error;
+		}
+
+		public boolean isSuccess() { return error == null; }
+
+		@Override
+		public String toString()
+		{
+			if (isSuccess()) return "tile " + tileID + " ok (" + elapsedMillis / 1000d + " s)";
+			return "tile " + tileID + " FAILED (" + elapsedMillis / 1000d + " s): " + error;
+		}
+	}
+
+	private final int nWorkers;
+	private final long heapBudget;
+	private long reserved;
+	private int running;
+
+	/** @param nWorkers maximum number of tiles to run at once
+	 *  @param heapBudget bytes of heap the running tiles may use between them */
+	public TileScheduler(int nWorkers, long heapBudget)
+	{
+		this.nWorkers = nWorkers;
+		this.heapBudget = heapBudget;
+	}
+
+	/** Use every processor and 80% of the maximum heap. */
+	public TileScheduler() { this(Runtime.getRuntime().availableProcessors(), (long)(Runtime.getRuntime().maxMemory() * 0.8)); }
+
+	/** Run the task on every tile, blocking until all are finished. <br>
+	 *  Tiles are started in the order given.
+	 *
+	 * @return one result per tile, in the same order as the tiles */
+	public List<TileResult> runAll(int[] tiles, TileFootprint footprint, final TileTask task)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+		List<Future<TileResult>> futures = new ArrayList<Future<TileResult>>();
+		List<TileResult> results = new ArrayList<TileResult>();
+
+		try {
+			for (final int tile : tiles)
+			{
+				long estimate;
+				try { estimate = footprint.estimate(tile); }
+				catch (IOException e)
+				{
+					futures.add(null);
+					results.add(new TileResult(tile, -1, 0, e));
+					continue;
+				}
+				final long bytes = estimate;
+				admit(bytes);
+				futures.add(executor.submit(() -> {
+					long start = System.currentTimeMillis();
+					Throwable error = null;
+					try { task.run(tile); }
+					catch (Throwable t) { error = t; }
+					finally { release(bytes); }
+					TileResult result = new TileResult(tile, bytes, System.currentTimeMillis() - start, error);
+					System.out.println(result);
+					return result;
+				}));
+				results.add(null);
+			}
+			for (int i = 0; i < futures.size(); i++)
+				if (futures.get(i) != null) results.set(i, futures.get(i).get());
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running tiles", e);
+		} catch (ExecutionException e) {
+			/* The tile task itself never throws, its errors are caught above. */
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return results;
+	}
+
+	/** Block until there is room in the heap budget for a tile of this size. */
+	private synchronized void admit(long bytes) throws InterruptedException
+	{
+		while (running > 0 && reserved + bytes > heapBudget) wait();
+		reserved += bytes;
+		running++;
+	}
+
+	private synchronized void release(long bytes)
+	{
+		reserved -= bytes;
+		running--;
+		notifyAll();
+	}
+
+	/** Print a one line summary of the run and each failure. */
+	public static void report(List<TileResult> results)
+	{
+		int failed = 0;
+		for (TileResult r : results) if (!r.isSuccess()) failed++;
+		System.out.println(results.size() + " tiles, " + (results.size() - failed) + " ok, " + failed + " failed");
+		for (TileResult r : results) if (!r.isSuccess()) System.out.println("  " + r);
+	}
+
+	/** @return the {time, y, x} shape of a variable in a Daymet file. */
+	public static int[] readGridShape(String filename, String variable) throws IOException
+	{
+		NetcdfFile ncfile = NetcdfFile.open(filename);
+		try {
+			Variable var = ncfile.findVariable(variable);
+			if (var == null) throw new IOException("No variable " + variable + " in " + filename);
+			return var.getShape();
+		} finally { ncfile.close(); }
+	}
+}
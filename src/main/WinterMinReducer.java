@@ -0,0 +1,77 @@
+package main;
+
+import java.time.LocalDate;
+import java.time.Year;
+
+import utils.ActiveCells;
+import utils.DataCube;
+import utils.TemperatureCube;
+
+/** Each cell's lowest daily minimum temperature of the winter, as {@link DaymetMinTemps#getWinterMin} gives it. <br>
+ *  A winter runs from September 1 through day 119 of the next year. As in getWinterMin,
+ *  a winter starting in a leap year ends on December 30 and has no days from the next year. <br>
+ *  Two winters are open at once: the one ending this year and the one starting in it.
+ *
+ * @author michaelfrancenelson */
+public class WinterMinReducer implements DailyReducer {
+
+	static final int WINTER_START_MONTH = 9;
+	static final int WINTER_END_DAY = 120;
+
+	private final DataCube output;
+	private final ActiveCells cells;
+	private final int startYear, endYear;
+
+	/* The winter ending in the current year, and the one starting in it. */
+	private float[] ending, starting;
+
+	/** @param output initialized cube with one layer per winter, starting with the winter starting in startYear */
+	public WinterMinReducer(DataCube output, ActiveCells cells, int startYear, int endYear)
+	{
+		this.output = output;
+		this.cells = cells;
+		this.startYear = startYear;
+		this.endYear = endYear;
+		ending = new float[cells.getNcols() * cells.getNrows()];
+		starting = new float[ending.length];
+	}
+
+	@Override
+	public void beginYear(int year, TemperatureCube temperatures) {}
+
+	@Override
+	public void accept(LocalDate date, float[] minTemps, float[] maxTemps)
+	{
+		int year = date.getYear();
+		int day = date.getDayOfYear();
+
+		if (year > startYear && !Year.isLeap(year - 1) && day < WINTER_END_DAY)
+			cellwiseMin(ending, minTemps);
+
+		/* The last year only ends a winter. */
+		if (year == endYear || date.getMonthValue() < WINTER_START_MONTH) return;
+		if (date.getMonthValue() == WINTER_START_MONTH && date.getDayOfMonth() == 1)
+			System.arraycopy(minTemps, 0, starting, 0, starting.length);
+		else if (day < 366) cellwiseMin(starting, minTemps);
+	}
+
+	@Override
+	public void endYear(int year)
+	{
+		if (year > startYear)
+			output.addDataLayer(year - 1 - startYear, cells.toGrid(ending, new double[cells.getNcols()][cells.getNrows()]));
+
+		float[] swap = ending;
+		ending = starting;
+		starting = swap;
+	}
+
+	@Override
+	public void finish() { output.writeOutputFile(); }
+
+	private void cellwiseMin(float[] current, float[] next)
+	{
+		for (int offset : cells.getOffsets())
+			current[offset] = Math.min(current[offset], next[offset]);
+	}
+}
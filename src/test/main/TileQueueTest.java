@@ -0,0 +1,121 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/** Several worker JVMs drain one queue directory with a stub task, and one of them is killed
+ *  while it runs a tile. Every tile must still end with exactly one finished run and its .done
+ *  marker, the killed worker's tile taken over once its lease expires. <br>
+ *  Each run of the stub task logs its start and end to {tile}.log beside the queue.
+ *
+ * @author michaelfrancenelson */
+public class TileQueueTest {
+
+	static final int WORKERS = 4, TILES = 24;
+	static final long EXPIRY_MILLIS = 3000, TASK_MILLIS = 400, TIMEOUT_MILLIS = 120000;
+
+	@Test
+	public void killedWorkersTilesAreRunOnce() throws Exception
+	{
+		Path directory = Files.createTempDirectory("tilequeue");
+		Path queue = directory.resolve("queue"), logs = directory.resolve("logs");
+		Files.createDirectories(logs);
+
+		List<Process> workers = new ArrayList<Process>();
+		for (int i = 0; i < WORKERS; i++)
+			workers.add(new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+					"-cp", System.getProperty("java.class.path"), TileQueueTest.class.getName(), queue.toString(), logs.toString())
+					.redirectErrorStream(true).redirectOutput(directory.resolve("worker" + i + ".out").toFile()).start());
+
+		try {
+			/* Kill a worker once it has started a tile, without letting it finish. */
+			Process victim = workers.get(0);
+			String victimID = victim.pid() + "@";
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			int victimTile = -1;
+			while (victimTile < 0 && System.currentTimeMillis() < deadline)
+			{
+				for (int tile = 0; tile < TILES && victimTile < 0; tile++)
+					if (logged(logs, tile, "start " + victimID)) victimTile = tile;
+				if (victimTile < 0) LockSupport.parkNanos(10000000);
+			}
+			assertTrue("the victim never started a tile", victimTile >= 0);
+			victim.destroyForcibly().waitFor();
+
+			for (Process worker : workers.subList(1, WORKERS))
+				assertTrue("a worker did not finish", worker.waitFor(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+			for (Process worker : workers.subList(1, WORKERS)) assertEquals(0, worker.exitValue());
+
+			for (int tile = 0; tile < TILES; tile++)
+			{
+				List<String> ends = new ArrayList<String>();
+				for (String line : lines(logs, tile)) if (line.startsWith("end ")) ends.add(line.substring(4));
+				assertEquals("finished runs of tile " + tile + ": " + ends, 1, ends.size());
+				assertEquals("worker named by the .done marker of tile " + tile, ends.get(0),
+						new String(Files.readAllBytes(queue.resolve(tile + ".done")), StandardCharsets.UTF_8));
+				assertFalse(Files.exists(queue.resolve(tile + ".failed")));
+				assertFalse(Files.exists(queue.resolve(tile + ".lease")));
+			}
+			assertFalse("the victim's tile was finished by the victim", logged(logs, victimTile, "end " + victimID));
+		} finally {
+			for (Process worker : workers) worker.destroyForcibly();
+		}
+
+		/* Removed only on success, so a failure leaves the workers' output behind. */
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	static List<String> lines(Path logs, int tile) throws IOException
+	{
+		Path log = logs.resolve(tile + ".log");
+		if (!Files.exists(log)) return new ArrayList<String>();
+		return Files.readAllLines(log, StandardCharsets.UTF_8);
+	}
+
+	/** @return true if a line of the tile's log starts with the prefix */
+	static boolean logged(Path logs, int tile, String prefix) throws IOException
+	{
+		for (String line : lines(logs, tile)) if (line.startsWith(prefix)) return true;
+		return false;
+	}
+
+	/* One worker: java -cp ... main.TileQueueTest queueDir logDir
+	 * Drains tiles 0 to TILES - 1 with a task that logs its start, sleeps, and logs its end. */
+	public static void main(String[] args) throws IOException
+	{
+		final Path logs = Paths.get(args[1]);
+		final TileQueue queue = new TileQueue(args[0], EXPIRY_MILLIS);
+		int[] tiles = new int[TILES];
+		for (int tile = 0; tile < TILES; tile++) tiles[tile] = tile;
+		queue.drain(tiles, tile -> {
+			log(logs, tile, "start " + queue.getWorkerID());
+			LockSupport.parkNanos(TASK_MILLIS * 1000000L);
+			log(logs, tile, "end " + queue.getWorkerID());
+		}, 1);
+	}
+
+	static void log(Path logs, int tile, String line) throws IOException
+	{
+		Files.write(logs.resolve(tile + ".log"), (line + "\n").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+}
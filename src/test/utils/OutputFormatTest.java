@@ -0,0 +1,26 @@
+package utils;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/** The -nc4 chunk shape applies to plain [year][y][x] outputs and to outputs with members.
+ *
+ * @author michaelfrancenelson */
+public class OutputFormatTest {
+
+	static int[] chunks(OutputFormat format, int rank)
+	{
+		int[] chunks = new int[rank];
+		for (int i = 0; i < rank; i++) chunks[i] = format.chunkLength(i, rank);
+		return chunks;
+	}
+
+	@Test
+	public void membersGetOneChunkEach()
+	{
+		OutputFormat format = OutputFormat.fromOptions(true, null, 1);
+		assertArrayEquals(new int[] { 0, 64, 64 }, chunks(format, 3));
+		assertArrayEquals(new int[] { 0, 1, 64, 64 }, chunks(format, 4));
+	}
+}
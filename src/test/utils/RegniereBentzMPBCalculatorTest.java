@@ -0,0 +1,261 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** The batch updates must give exactly the states of updateState() run cell by cell. <br>
+ *  A year of random temperatures is run through each path, with some cells missing either
+ *  temperature on some days, and the states compared bit for bit along the way. The year
+ *  starts in July so the gain-only days of August onwards are covered along with the rest.
+ *
+ * @author michaelfrancenelson */
+public class RegniereBentzMPBCalculatorTest {
+
+	static final int NCOLS = 13, NROWS = 11, NCELLS = NCOLS * NROWS;
+	static final LocalDate FIRST_DAY = LocalDate.of(1990, 7, 1);
+	static final int NDAYS = 365;
+
+	/** Daily layers, [day][cell]. */
+	float[][] tempsMin, tempsMax;
+	/** The same layers widened to double. */
+	double[][] tempsMinDouble, tempsMaxDouble;
+
+	@Before
+	public void makeTemperatures()
+	{
+		Random random = new Random(20181017);
+		tempsMin = new float[NDAYS][NCELLS];
+		tempsMax = new float[NDAYS][NCELLS];
+		tempsMinDouble = new double[NDAYS][NCELLS];
+		tempsMaxDouble = new double[NDAYS][NCELLS];
+		for (int day = 0; day < NDAYS; day++)
+		{
+			/* Roughly seasonal, cold enough in winter to kill. */
+			double seasonal = -5 + 20 * Math.cos(2 * Math.PI * (day - 15) / NDAYS);
+			for (int cell = 0; cell < NCELLS; cell++)
+			{
+				float min = (float) (seasonal - 10 + 12 * random.nextGaussian());
+				float max = (float) (min + 15 * random.nextDouble());
+				double u = random.nextDouble();
+				if (u < 0.02) min = (float) RegniereBentzMPBCalculator.MISSING_DATA;
+				else if (u < 0.04) max = (float) RegniereBentzMPBCalculator.MISSING_DATA;
+				tempsMin[day][cell] = min;
+				tempsMax[day][cell] = max;
+				tempsMinDouble[day][cell] = min;
+				tempsMaxDouble[day][cell] = max;
+			}
+		}
+	}
+
+	/** Run updateState() over every cell of the layers, from fresh states, for nDays days. */
+	double[][] referenceStates(double tempAdjust, int nDays) { return referenceStates(FIRST_DAY, 0, tempAdjust, nDays); }
+
+	/** As referenceStates(tempAdjust, nDays), taking the layers from firstLayer on as the days from firstDay on. */
+	double[][] referenceStates(LocalDate firstDay, int firstLayer, double tempAdjust, int nDays)
+	{
+		double[][] states = new double[NCELLS][];
+		for (int cell = 0; cell < NCELLS; cell++) states[cell] = new double[] { 0, 0, 0, 1 };
+		for (int day = 0; day < nDays; day++)
+		{
+			LocalDate today = firstDay.plusDays(day);
+			int layer = firstLayer + day;
+			for (int cell = 0; cell < NCELLS; cell++)
+			{
+				double[] temps = { tempsMinDouble[layer][cell] - tempAdjust, tempsMaxDouble[layer][cell] - tempAdjust };
+				RegniereBentzMPBCalculator.updateState(temps, today, states[cell]);
+			}
+		}
+		return states;
+	}
+
+	static void assertSameStates(String message, double[][] expected, CellStates actual)
+	{
+		for (int cell = 0; cell < NCELLS; cell++)
+		{
+			assertSame(message + " cold hardening, cell " + cell, expected[cell][0], actual.coldHardening[cell]);
+			assertSame(message + " gain, cell " + cell, expected[cell][1], actual.gain[cell]);
+			assertSame(message + " loss, cell " + cell, expected[cell][2], actual.loss[cell]);
+			assertSame(message + " survival, cell " + cell, expected[cell][3], actual.survival[cell]);
+		}
+	}
+
+	/** Bit for bit, so that NaNs and signed zeros count too. */
+	static void assertSame(String message, double expected, double actual)
+	{
+		assertEquals(message, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual));
+	}
+
+	@Test
+	public void gainOnlyDaysAreCovered()
+	{
+		assertEquals(false, RegniereBentzMPBCalculator.gainOnly(FIRST_DAY));
+		assertEquals(true, RegniereBentzMPBCalculator.gainOnly(FIRST_DAY.plusDays(45)));
+	}
+
+	@Test
+	public void doubleLayersMatchUpdateState()
+	{
+		for (double tempAdjust : new double[] { 0, -2.5 })
+		{
+			CellStates states = new CellStates(NCELLS);
+			for (int day = 0; day < NDAYS; day++)
+			{
+				RegniereBentzMPBCalculator.updateStates(tempsMinDouble[day], tempsMaxDouble[day], tempAdjust,
+						RegniereBentzMPBCalculator.gainOnly(FIRST_DAY.plusDays(day)), RegniereBentzMPBCalculator.MISSING_DATA, states);
+				if (day % 30 == 0 || day == NDAYS - 1)
+					assertSameStates("double layers, day " + day, referenceStates(tempAdjust, day + 1), states);
+			}
+		}
+	}
+
+	@Test
+	public void floatLayersMatchUpdateState()
+	{
+		for (double tempAdjust : new double[] { 0, -2.5 })
+		{
+			CellStates states = new CellStates(NCELLS);
+			for (int day = 0; day < NDAYS; day++)
+				RegniereBentzMPBCalculator.updateStates(tempsMin[day], tempsMax[day], tempAdjust,
+						RegniereBentzMPBCalculator.gainOnly(FIRST_DAY.plusDays(day)), RegniereBentzMPBCalculator.MISSING_DATA, states);
+			assertSameStates("float layers", referenceStates(tempAdjust, NDAYS), states);
+		}
+	}
+
+	@Test
+	public void activeCellsMatchUpdateState()
+	{
+		/* Every other cell, so the states are indexed apart from the layers. */
+		int[] offsets = new int[(NCELLS + 1) / 2];
+		for (int i = 0; i < offsets.length; i++) offsets[i] = 2 * i;
+
+		CellStates states = new CellStates(offsets.length);
+		for (int day = 0; day < NDAYS; day++)
+			RegniereBentzMPBCalculator.updateStates(tempsMin[day], tempsMax[day], offsets, 0,
+					RegniereBentzMPBCalculator.gainOnly(FIRST_DAY.plusDays(day)), RegniereBentzMPBCalculator.MISSING_DATA,
+					states.coldHardening, states.gain, states.loss, states.survival);
+
+		double[][] expected = referenceStates(0, NDAYS);
+		for (int i = 0; i < offsets.length; i++)
+		{
+			assertSame("active cells cold hardening, cell " + i, expected[offsets[i]][0], states.coldHardening[i]);
+			assertSame("active cells gain, cell " + i, expected[offsets[i]][1], states.gain[i]);
+			assertSame("active cells loss, cell " + i, expected[offsets[i]][2], states.loss[i]);
+			assertSame("active cells survival, cell " + i, expected[offsets[i]][3], states.survival[i]);
+		}
+	}
+
+	/** The layers as the cube of a calendar year, layer i holding day of the year i + 1. */
+	TemperatureCube calendarYear(int year)
+	{
+		return new TemperatureCube() {
+			@Override
+			public void getMaxOnDate(LocalDate date, float[] dest) { getMaxLayer(date).get(dest, 0, NCELLS); }
+			@Override
+			public void getMinOnDate(LocalDate date, float[] dest) { getMinLayer(date).get(dest, 0, NCELLS); }
+			@Override
+			public FloatBuffer getMaxLayer(LocalDate date) { return FloatBuffer.wrap(tempsMax[date.getDayOfYear() - 1]).asReadOnlyBuffer(); }
+			@Override
+			public FloatBuffer getMinLayer(LocalDate date) { return FloatBuffer.wrap(tempsMin[date.getDayOfYear() - 1]).asReadOnlyBuffer(); }
+			@Override
+			public int getNrows() { return NROWS; }
+			@Override
+			public int getNcols() { return NCOLS; }
+		};
+	}
+
+	@Test
+	public void cellSeriesMatchUpdateState()
+	{
+		/* Three blocks, the last one short, run in two stretches of days as the runner's scoring days split them. */
+		int year = 1991, firstDay = 1, split = 100;
+		CellSeries series = new CellSeries(calendarYear(year), ActiveCells.all(NCOLS, NROWS), year, firstDay);
+		assertEquals(true, NCELLS > 2 * CellSeries.BLOCK_CELLS && NCELLS % CellSeries.BLOCK_CELLS != 0);
+		for (double tempAdjust : new double[] { 0, -2.5 })
+		{
+			CellStates states = new CellStates(NCELLS);
+			RegniereBentzMPBCalculator.updateSeries(series, 0, split, tempAdjust, RegniereBentzMPBCalculator.MISSING_DATA, states);
+			assertSameStates("cell series, day " + split, referenceStates(LocalDate.ofYearDay(year, firstDay), firstDay - 1, tempAdjust, split), states);
+			RegniereBentzMPBCalculator.updateSeries(series, split, series.nDays, tempAdjust, RegniereBentzMPBCalculator.MISSING_DATA, states);
+			assertSameStates("cell series", referenceStates(LocalDate.ofYearDay(year, firstDay), firstDay - 1, tempAdjust, series.nDays), states);
+		}
+	}
+
+	/** Run updateMembers() over every cell, from fresh states, for the whole year. */
+	CellStates memberStates(ModelParameters[] members, double[] tempAdjust)
+	{
+		int[] offsets = new int[NCELLS];
+		for (int cell = 0; cell < NCELLS; cell++) offsets[cell] = cell;
+		CellStates states = new CellStates(NCELLS * members.length);
+		for (int day = 0; day < NDAYS; day++)
+			RegniereBentzMPBCalculator.updateMembers(tempsMin[day], tempsMax[day], offsets, tempAdjust,
+					RegniereBentzMPBCalculator.gainOnly(FIRST_DAY.plusDays(day)), RegniereBentzMPBCalculator.MISSING_DATA, members,
+					states.coldHardening, states.gain, states.loss, states.survival);
+		return states;
+	}
+
+	/** Compare member m of an ensemble's states with the states of a single run. */
+	static void assertSameMember(String message, double[][] expected, CellStates actual, int m, int nMembers)
+	{
+		for (int cell = 0; cell < NCELLS; cell++)
+		{
+			int state = cell * nMembers + m;
+			assertSame(message + " cold hardening, cell " + cell, expected[cell][0], actual.coldHardening[state]);
+			assertSame(message + " gain, cell " + cell, expected[cell][1], actual.gain[state]);
+			assertSame(message + " loss, cell " + cell, expected[cell][2], actual.loss[state]);
+			assertSame(message + " survival, cell " + cell, expected[cell][3], actual.survival[state]);
+		}
+	}
+
+	@Test
+	public void defaultMembersMatchUpdateState()
+	{
+		ModelParameters other = ModelParameters.DEFAULT.with("mean_scp_alpha_3", -35);
+		ModelParameters[] members = { ModelParameters.DEFAULT, other, ModelParameters.DEFAULT };
+		CellStates states = memberStates(members, new double[] { 0, 0, 0 });
+
+		double[][] expected = referenceStates(0, NDAYS);
+		assertSameMember("member 0", expected, states, 0, members.length);
+		assertSameMember("member 2", expected, states, 2, members.length);
+
+		/* The other member runs with its own constants. */
+		int differs = 0;
+		for (int cell = 0; cell < NCELLS; cell++)
+			if (states.survival[cell * members.length + 1] != expected[cell][3]) differs++;
+		assertEquals(true, differs > 0);
+	}
+
+	@Test
+	public void warmingScenariosMatchUpdateState()
+	{
+		/* As EnsembleReducer.scenarios() runs them: default parameters, tempAdjust = -warming. */
+		double[] tempAdjust = { 0, -1.5, -4 };
+		ModelParameters[] members = { ModelParameters.DEFAULT, ModelParameters.DEFAULT, ModelParameters.DEFAULT };
+		CellStates states = memberStates(members, tempAdjust);
+		for (int m = 0; m < members.length; m++)
+			assertSameMember("scenario " + m, referenceStates(tempAdjust[m], NDAYS), states, m, members.length);
+	}
+
+	@Test
+	public void missingDaysLeaveStatesAlone()
+	{
+		CellStates states = new CellStates(NCELLS);
+		float[] missing = new float[NCELLS];
+		Arrays.fill(missing, (float) RegniereBentzMPBCalculator.MISSING_DATA);
+		RegniereBentzMPBCalculator.updateStates(tempsMin[0], tempsMax[0], 0, false, RegniereBentzMPBCalculator.MISSING_DATA, states);
+		double[] coldHardening = states.coldHardening.clone(), survival = states.survival.clone();
+		RegniereBentzMPBCalculator.updateStates(missing, tempsMax[1], 0, false, RegniereBentzMPBCalculator.MISSING_DATA, states);
+		RegniereBentzMPBCalculator.updateStates(tempsMin[1], missing, 0, false, RegniereBentzMPBCalculator.MISSING_DATA, states);
+		for (int cell = 0; cell < NCELLS; cell++)
+		{
+			assertSame("cold hardening, cell " + cell, coldHardening[cell], states.coldHardening[cell]);
+			assertSame("survival, cell " + cell, survival[cell], states.survival[cell]);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+
+/** Several threads acquire the same few years while some decodes fail. Each year must end up
+ *  cached once, with the cache's byte count matching what it holds and every pin released.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCacheTest {
+
+	static final int THREADS = 8, ROUNDS = 300, YEARS = 4, VALUES = 1000;
+
+	@Test
+	public void failedDecodesLeaveConsistentEntries() throws Exception
+	{
+		TemperatureCache cache = new TemperatureCache(Long.MAX_VALUE);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < THREADS; t++)
+		{
+			final Random random = new Random(t);
+			results.add(pool.submit(() -> {
+				int acquired = 0;
+				for (int round = 0; round < ROUNDS; round++)
+				{
+					int year = random.nextInt(YEARS);
+					boolean fail = random.nextBoolean();
+					try {
+						cache.acquire(1, year, "tmin", () -> {
+							LockSupport.parkNanos(1000000);
+							if (fail) throw new IOException("decode failed");
+							return Array.factory(DataType.FLOAT, new int[] { VALUES });
+						});
+					} catch (IOException e) { continue; }
+					acquired++;
+					cache.release(1, year, "tmin");
+				}
+				return acquired;
+			}));
+		}
+		pool.shutdown();
+		for (Future<Integer> result : results) result.get();
+
+		/* Every year is decoded eventually; a year cached twice would count its bytes twice. */
+		for (int year = 0; year < YEARS; year++)
+		{
+			cache.acquire(1, year, "tmin", () -> Array.factory(DataType.FLOAT, new int[] { VALUES }));
+			cache.release(1, year, "tmin");
+		}
+		assertEquals(YEARS * VALUES * 4L, cache.getBytes());
+	}
+}
@@ -0,0 +1,62 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.time.LocalDate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/** Closing a prefetcher part way through must close every year it loaded and didn't return,
+ *  including the one still being read.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCubePrefetcherTest {
+
+	final AtomicInteger opened = new AtomicInteger(), closed = new AtomicInteger();
+
+	/** An empty year that counts being opened and closed. */
+	TemperatureCube cube()
+	{
+		opened.incrementAndGet();
+		return new TemperatureCube() {
+			@Override
+			public void getMaxOnDate(LocalDate date, float[] dest) {}
+			@Override
+			public void getMinOnDate(LocalDate date, float[] dest) {}
+			@Override
+			public FloatBuffer getMaxLayer(LocalDate date) { return FloatBuffer.allocate(0); }
+			@Override
+			public FloatBuffer getMinLayer(LocalDate date) { return FloatBuffer.allocate(0); }
+			@Override
+			public int getNrows() { return 0; }
+			@Override
+			public int getNcols() { return 0; }
+			@Override
+			public void close() { closed.incrementAndGet(); }
+		};
+	}
+
+	@Test
+	public void closeClosesTheYearBeingRead() throws Exception
+	{
+		final CountDownLatch reading = new CountDownLatch(2);
+		TemperatureCubePrefetcher years = new TemperatureCubePrefetcher(year -> {
+			reading.countDown();
+			/* Slow, and deaf to interrupts, like a NetCDF read. */
+			if (year > 1980) LockSupport.parkNanos(200000000);
+			return cube();
+		}, 1980, 1990, 3);
+
+		years.next().close();
+		/* The second year is being read now, the third is queued. */
+		assertEquals(true, reading.await(10, TimeUnit.SECONDS));
+		years.close();
+		assertEquals(opened.get(), closed.get());
+		assertEquals(2, opened.get());
+	}
+}
@@ -0,0 +1,128 @@
+package utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.ProjectionPoint;
+import ucar.unidata.geoloc.ProjectionPointImpl;
+import ucar.unidata.geoloc.projection.LambertConformal;
+
+/** The stepping search must find the same cell as a scan of every cell, on 1 km grids in Daymet's
+ *  projection, including the far north where the grid is most rotated and tiles one cell wide. <br>
+ *  Some cells have no data, and some points are off the tile.
+ *
+ * @author michaelfrancenelson */
+public class TileLocatorTest {
+
+	/* Daymet's Lambert conformal conic, in km. */
+	static final LambertConformal DAYMET = new LambertConformal(42.5, -100, 25, 60, 0, 0, 6378.137);
+
+	double[] lat, lon;
+	ActiveCells cells;
+
+	/** A grid of nCol x nRow 1 km cells with its first cell near a point, about a tenth of them without data. */
+	void makeTile(double latitude, double longitude, int nCol, int nRow, long seed)
+	{
+		ProjectionPoint origin = DAYMET.latLonToProj(new LatLonPointImpl(latitude, longitude));
+		Random random = new Random(seed);
+		lat = new double[nCol * nRow];
+		lon = new double[nCol * nRow];
+		BitSet valid = new BitSet(nCol * nRow);
+		for (int col = 0; col < nCol; col++)
+			for (int row = 0; row < nRow; row++)
+			{
+				/* Cols are y, rows are x; y decreases down the file as in Daymet. */
+				LatLonPoint point = DAYMET.projToLatLon(new ProjectionPointImpl(origin.getX() + row, origin.getY() - col));
+				lat[col * nRow + row] = point.getLatitude();
+				lon[col * nRow + row] = point.getLongitude();
+				valid.set(col * nRow + row, random.nextDouble() > 0.1);
+			}
+		cells = new ActiveCells(nCol, nRow, valid);
+	}
+
+	/** What locate() should return, by looking at every cell. */
+	int[] scan(double latitude, double longitude)
+	{
+		double lonScale = Math.cos(Math.toRadians(latitude));
+		int nearest = -1;
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < lat.length; i++)
+		{
+			double d = distance(latitude, longitude, i, lonScale);
+			if (d < best) { best = d; nearest = i; }
+		}
+
+		/* Off the tile if further from the nearest cell than that cell is from its neighbours. */
+		int nRow = cells.getNrows(), nCol = cells.getNcols();
+		int col = nearest / nRow, row = nearest % nRow;
+		double spacing = Double.MAX_VALUE;
+		for (int[] step : new int[][] { { 0, -1 }, { 0, 1 }, { -1, 0 }, { 1, 0 } })
+		{
+			int c = col + step[0], r = row + step[1];
+			if (c >= 0 && c < nCol && r >= 0 && r < nRow)
+				spacing = Math.min(spacing, distance(lat[nearest], lon[nearest], c * nRow + r, lonScale));
+		}
+		if (spacing == Double.MAX_VALUE) spacing = TileLocator.NOMINAL_CELL_DEGREES * TileLocator.NOMINAL_CELL_DEGREES;
+		if (best > spacing || !cells.isActive(col, row)) return null;
+		return new int[] { col, row };
+	}
+
+	double distance(double latitude, double longitude, int i, double lonScale)
+	{
+		double dLat = latitude - lat[i], dLon = (longitude - lon[i]) * lonScale;
+		return dLat * dLat + dLon * dLon;
+	}
+
+	/** Random points over the tile and a few cells past its edges. */
+	int checkPoints(long seed)
+	{
+		TileLocator locator = new TileLocator(cells, lat, lon);
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int i = 0; i < lat.length; i++)
+		{
+			minLat = Math.min(minLat, lat[i]); maxLat = Math.max(maxLat, lat[i]);
+			minLon = Math.min(minLon, lon[i]); maxLon = Math.max(maxLon, lon[i]);
+		}
+		double pad = 0.05;
+		Random random = new Random(seed);
+		int found = 0;
+		for (int n = 0; n < 2000; n++)
+		{
+			double latitude = minLat - pad + random.nextDouble() * (maxLat - minLat + 2 * pad);
+			double longitude = minLon - pad + random.nextDouble() * (maxLon - minLon + 2 * pad);
+			int[] expected = scan(latitude, longitude);
+			assertArrayEquals(latitude + ", " + longitude, expected, locator.locate(latitude, longitude));
+			if (expected != null) found++;
+		}
+		return found;
+	}
+
+	@Test
+	public void matchesScanOfEveryCell()
+	{
+		double[][] corners = { { 45, -110 }, { 66, -160 }, { 20, -75 } };
+		for (int i = 0; i < corners.length; i++)
+		{
+			makeTile(corners[i][0], corners[i][1], 120, 150, i);
+			assertEquals(true, checkPoints(i) > 0);
+		}
+	}
+
+	@Test
+	public void tilesOneCellWide()
+	{
+		int[][] shapes = { { 1, 40 }, { 40, 1 }, { 1, 1 } };
+		for (int[] shape : shapes)
+		{
+			makeTile(60, -130, shape[0], shape[1], 7);
+			checkPoints(7);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** The cells of a tile that hold data, built once per tile from its mask. <br>
+ *  The mask is a bitset over the flat grid index {@code col * nRow + row}, and the
+ *  valid cells are also listed densely, in grid order, so per-day loops only visit
+ *  cells that need work. Per-cell state is indexed by position in that dense list.
+ *
+ * @author michaelfrancenelson */
+public class ActiveCells {
+
+	private final int nCol, nRow;
+	private final BitSet valid;
+	private final int[] offsets;
+
+	/** @param valid bit col * nRow + row is set for each cell holding data */
+	public ActiveCells(int nCol, int nRow, BitSet valid)
+	{
+		this.nCol = nCol;
+		this.nRow = nRow;
+		this.valid = valid;
+		offsets = new int[valid.cardinality()];
+		int i = 0;
+		for (int offset = valid.nextSetBit(0); offset >= 0; offset = valid.nextSetBit(offset + 1))
+			offsets[i++] = offset;
+	}
+
+	/** Every cell of the grid is active. */
+	public static ActiveCells all(int nCol, int nRow)
+	{
+		BitSet valid = new BitSet(nCol * nRow);
+		valid.set(0, nCol * nRow);
+		return new ActiveCells(nCol, nRow, valid);
+	}
+
+	public int getNcols() { return nCol; }
+
+	public int getNrows() { return nRow; }
+
+	/** Number of active cells. */
+	public int size() { return offsets.length; }
+
+	public boolean isActive(int col, int row) { return valid.get(col * nRow + row); }
+
+	/** Flat grid offsets of the active cells, in ascending order. Not to be modified. */
+	public int[] getOffsets() { return offsets; }
+
+	/** @return the cell's position in the dense list, or -1 if it isn't active */
+	public int indexOf(int col, int row)
+	{
+		int i = Arrays.binarySearch(offsets, col * nRow + row);
+		return i < 0 ? -1 : i;
+	}
+
+	/** Spread one value per active cell out over a [col][row] grid, NaN for inactive cells. */
+	public double[][] toGrid(double[] values, double[][] grid)
+	{
+		for (double[] column : grid) Arrays.fill(column, Double.NaN);
+		for (int i = 0; i < offsets.length; i++)
+			grid[offsets[i] / nRow][offsets[i] % nRow] = values[i];
+		return grid;
+	}
+
+	/** Gather the active cells of a [col][row] grid into one value per active cell. */
+	public double[] fromGrid(double[][] grid, double[] values)
+	{
+		for (int i = 0; i < offsets.length; i++)
+			values[i] = grid[offsets[i] / nRow][offsets[i] % nRow];
+		return values;
+	}
+
+	/** Copy the active cells of a flat layer into a [col][row] grid, NaN for inactive cells. */
+	public double[][] toGrid(float[] layer, double[][] grid)
+	{
+		for (double[] column : grid) Arrays.fill(column, Double.NaN);
+		for (int offset : offsets)
+			grid[offset / nRow][offset % nRow] = layer[offset];
+		return grid;
+	}
+}
@@ -1,26 +1,45 @@
 package utils;
 
 import java.time.LocalDate;
- /** @author michaelfrancenelson */
+ /** A single cell's view onto a {@link CellStates} store. <br>
+  *  A cell made with the no-argument constructor owns a store of its own. <br>
+  *  The state lives in the store, so it is no longer a public array: code that read
+  *  {@code cell.state} calls getState() and code that wrote it calls setState().
+  *
+  *  @author michaelfrancenelson */
 
 public class Cell {
+
+	private final CellStates states;
+	private final int index;
+
+	public Cell() { this(new CellStates(1), 0); }
+
+	public Cell(CellStates states, int index) { this.states = states; this.index = index; }
+
 	/** state[0] = cold hardening <br>
 	 *  state[1] = gain <br>
 	 *  state[2] = loss <br>
-	 *  state[3] = survival */
-	public double[] state = new double[4];
-	
-	public Cell() { state[3] = 1.0f; }
-	
-	public void reset() { state =  new double[4]; state[3] = 1.0f; }
-	
-	/** Update the beetle survival score given today's min and max temperature. <br> 
-	 *  If temperature data for the day is missing, today's update is skipped and 
+	 *  state[3] = survival
+	 *
+	 *  @return a copy of the cell's current state */
+	public double[] getState() { return states.getState(index, new double[4]); }
+
+	/** Replace the cell's state, laid out as getState() returns it. */
+	public void setState(double[] state) { states.setState(index, state); }
+
+	public double getSurvival() { return states.survival[index]; }
+
+	public void reset() { states.reset(index); }
+
+	/** Update the beetle survival score given today's min and max temperature. <br>
+	 *  If temperature data for the day is missing, today's update is skipped and
 	 *  the survival remains at yesterday's value.
-	 * 
+	 *
 	 * @param temps today's temperature data: index 0 is the daily min, index 1 is the daily max
 	 * @param today a LocalDate object with today's date
 	 * @param params */
-	public void updateDaily(double[] temps, LocalDate today) { RegniereBentzMPBCalculator.updateState(temps, today, state);
+	public void updateDaily(double[] temps, LocalDate today) {
+		setState(RegniereBentzMPBCalculator.updateState(temps, today, getState()));
 	}
 }
@@ -0,0 +1,61 @@
+package utils;
+
+import java.nio.FloatBuffer;
+import java.time.LocalDate;
+import java.time.Year;
+
+/** A year of temperatures for a tile's active cells, rearranged so that a block of cells can be
+ *  run through the whole year before the next block is touched. <br>
+ *  The active cells are split into blocks of {@link #BLOCK_CELLS}, and each block's temperatures
+ *  are stored together, day by day: day d of the cell i in the block starting at cell first is at
+ *  {@code first * nDays + d * width + (i - first)}, where width is the number of cells in the
+ *  block and d counts from firstDay. Only the days the model simulates are kept, from firstDay
+ *  through December 30.
+ *
+ * @author michaelfrancenelson */
+public class CellSeries {
+
+	/** Cells per block. A block's states, 2 kB, stay in L1 while its days are run, and its cells
+	 *  are still enough to keep the updates of a day independent of each other. */
+	public static final int BLOCK_CELLS = 64;
+
+	/** firstDay is a day of the year, starting at 1. */
+	public final int year, firstDay, nDays, nCells;
+	/** Temperatures in blocks, see the class comment. */
+	public final float[] min, max;
+	/** {@link RegniereBentzMPBCalculator#gainOnly(LocalDate)} for each day. */
+	public final boolean[] gainOnly;
+
+	public CellSeries(TemperatureCube temperatures, ActiveCells cells, int year, int firstDay)
+	{
+		this.year = year;
+		this.firstDay = firstDay;
+		nDays = Math.max(0, Year.of(year).length() - firstDay);
+		nCells = cells.size();
+		min = new float[nCells * nDays];
+		max = new float[nCells * nDays];
+		gainOnly = new boolean[nDays];
+
+		/* Day by day, so that each layer is finished with before the next is read. */
+		int[] offsets = cells.getOffsets();
+		for (int day = 0; day < nDays; day++)
+		{
+			LocalDate date = LocalDate.ofYearDay(year, firstDay + day);
+			FloatBuffer minLayer = temperatures.getMinLayer(date), maxLayer = temperatures.getMaxLayer(date);
+			gainOnly[day] = RegniereBentzMPBCalculator.gainOnly(date);
+			for (int first = 0; first < nCells; first += BLOCK_CELLS)
+			{
+				int last = blockEnd(first);
+				int i = first * nDays + day * (last - first);
+				for (int cell = first; cell < last; cell++, i++)
+				{
+					min[i] = minLayer.get(offsets[cell]);
+					max[i] = maxLayer.get(offsets[cell]);
+				}
+			}
+		}
+	}
+
+	/** One past the last cell of the block starting at cell first. */
+	public int blockEnd(int first) { return Math.min(nCells, first + BLOCK_CELLS); }
+}
@@ -0,0 +1,71 @@
+package utils;
+
+import java.util.Arrays;
+
+/** Beetle cold hardening states for a whole grid of cells, stored as one flat
+ *  primitive array per state variable rather than one small array per {@link Cell}. <br>
+ *  Cells are indexed by a single integer; for a grid this is {@code col * nRow + row}.
+ *
+ * @author michaelfrancenelson */
+public class CellStates {
+
+	/** state[0] = cold hardening */
+	public final double[] coldHardening;
+	/** state[1] = gain */
+	public final double[] gain;
+	/** state[2] = loss */
+	public final double[] loss;
+	/** state[3] = survival */
+	public final double[] survival;
+
+	private final int nCells;
+
+	public CellStates(int nCells)
+	{
+		this.nCells = nCells;
+		coldHardening = new double[nCells];
+		gain = new double[nCells];
+		loss = new double[nCells];
+		survival = new double[nCells];
+		reset();
+	}
+
+	public int size() { return nCells; }
+
+	/** Reset every cell to its initial state, in place. */
+	public void reset()
+	{
+		Arrays.fill(coldHardening, 0d);
+		Arrays.fill(gain, 0d);
+		Arrays.fill(loss, 0d);
+		Arrays.fill(survival, 1d);
+	}
+
+	/** Reset a single cell to its initial state. */
+	public void reset(int cell)
+	{
+		coldHardening[cell] = 0d;
+		gain[cell] = 0d;
+		loss[cell] = 0d;
+		survival[cell] = 1d;
+	}
+
+	/** Copy one cell's state into a 4 element array in the {@link Cell} layout. */
+	public double[] getState(int cell, double[] state)
+	{
+		state[0] = coldHardening[cell];
+		state[1] = gain[cell];
+		state[2] = loss[cell];
+		state[3] = survival[cell];
+		return state;
+	}
+
+	/** Copy a 4 element state array in the {@link Cell} layout into one cell. */
+	public void setState(int cell, double[] state)
+	{
+		coldHardening[cell] = state[0];
+		gain[cell] = state[1];
+		loss[cell] = state[2];
+		survival[cell] = state[3];
+	}
+}
@@ -0,0 +1,148 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** Saves a run's progress at year boundaries so it can be resumed after a failure. <br>
+ *  Two files sit next to the output file: {@code .checkpoint} holds the next year to run and
+ *  every active cell's state, and {@code .layers} holds the finished output layers, one value
+ *  per active cell, appended a year at a time. <br>
+ *  The layer is appended and forced to disk before the state file is replaced, and the state
+ *  is written to a temporary file and moved over the old one, so a crash at any point leaves a
+ *  consistent checkpoint. Layers past the checkpoint's year are ignored and overwritten.
+ *
+ * @author michaelfrancenelson */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x4d504243;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 6 * 4;
+
+	private final Path stateFile, tempFile, layersFile;
+	private final int startYear, endYear, nCells;
+
+	/* Reused between saves, one state variable at a time. */
+	private final ByteBuffer buffer;
+
+	/** @param outputFilename the run's output file, the checkpoint files are named after it
+	 *  @param nCells number of active cells */
+	public Checkpoint(String outputFilename, int startYear, int endYear, int nCells)
+	{
+		stateFile = Paths.get(outputFilename + ".checkpoint");
+		tempFile = Paths.get(outputFilename + ".checkpoint.tmp");
+		layersFile = Paths.get(outputFilename + ".layers");
+		this.startYear = startYear;
+		this.endYear = endYear;
+		this.nCells = nCells;
+		buffer = ByteBuffer.allocateDirect(nCells * 8);
+	}
+
+	public boolean exists() { return Files.exists(stateFile); }
+
+	/**
+	 * Record a finished year.
+	 *
+	 * @param nextYear the first year not yet run
+	 * @param layer the output layer just finished, one value per active cell
+	 * @param states every active cell's state after the finished year
+	 */
+	public void save(int nextYear, double[] layer, CellStates states) throws IOException
+	{
+		try (FileChannel layers = FileChannel.open(layersFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			layers.position((long) (nextYear - 1 - startYear) * nCells * 8);
+			write(layers, layer);
+			layers.force(false);
+		}
+
+		try (FileChannel state = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(startYear).putInt(endYear).putInt(nextYear).putInt(nCells);
+			header.flip();
+			while (header.hasRemaining()) state.write(header);
+			write(state, states.coldHardening);
+			write(state, states.gain);
+			write(state, states.loss);
+			write(state, states.survival);
+			state.force(false);
+		}
+		Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restore the cells and finished layers from the last checkpoint.
+	 *
+	 * @param states filled with the saved state of each active cell
+	 * @param layers the finished output layers are added to this, in order
+	 * @return the first year not yet run
+	 * @throws IOException if the files can't be read or were written for a different run
+	 */
+	public int load(CellStates states, List<double[]> layers) throws IOException
+	{
+		int nextYear;
+		try (FileChannel state = FileChannel.open(stateFile, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			read(state, header);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(stateFile + " is not a checkpoint");
+			int savedStart = header.getInt(), savedEnd = header.getInt();
+			if (savedStart != startYear || savedEnd != endYear)
+				throw new IOException(stateFile + " is for a different run of years");
+			nextYear = header.getInt();
+			if (header.getInt() != nCells || states.size() != nCells)
+				throw new IOException(stateFile + " is for a different number of cells");
+			read(state, states.coldHardening);
+			read(state, states.gain);
+			read(state, states.loss);
+			read(state, states.survival);
+		}
+
+		try (FileChannel in = FileChannel.open(layersFile, StandardOpenOption.READ)) {
+			for (int year = startYear; year < nextYear; year++)
+			{
+				double[] layer = new double[nCells];
+				read(in, layer);
+				layers.add(layer);
+			}
+		}
+		return nextYear;
+	}
+
+	/** Remove the checkpoint files, once the output is safely written. */
+	public void delete() throws IOException
+	{
+		Files.deleteIfExists(stateFile);
+		Files.deleteIfExists(tempFile);
+		Files.deleteIfExists(layersFile);
+	}
+
+	private void write(FileChannel channel, double[] values) throws IOException
+	{
+		buffer.clear();
+		buffer.asDoubleBuffer().put(values);
+		buffer.limit(values.length * 8);
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+
+	private void read(FileChannel channel, double[] values) throws IOException
+	{
+		buffer.clear();
+		buffer.limit(values.length * 8);
+		read(channel, buffer);
+		buffer.asDoubleBuffer().get(values);
+	}
+
+	private static void read(FileChannel channel, ByteBuffer dest) throws IOException
+	{
+		while (dest.hasRemaining())
+			if (channel.read(dest) < 0) throw new IOException("Checkpoint ends early");
+		dest.flip();
+	}
+}
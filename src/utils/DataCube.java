@@ -1,14 +1,11 @@
 package utils;
 
-import java.io.IOException;
-
-import ucar.ma2.InvalidRangeException;
-
+/** Where a run's layers go, one [col][row] grid per year. <br>
+ *  Cubes that own an output file of their own also implement {@link DataCubeFile}. */
 public interface DataCube {
 	
-	public int[][] initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear);
+	/** @return the cells of the template tile that hold data */
+	public ActiveCells initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear);
 	public void addDataLayer(int layer, double[][] dat);
 	public void writeOutputFile();
-	public void initializeSaveFile(String filename, int startYear, int endYear, int nCol, int nRow, TemperatureCube weather) throws IOException;
-	public void finalizeSaveFile(int startYear, int endYear) throws IOException, InvalidRangeException;
 }
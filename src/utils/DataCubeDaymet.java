@@ -2,9 +2,14 @@ package utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
@@ -14,10 +19,9 @@ import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.NetcdfFileWriter;
-import ucar.nc2.NetcdfFileWriter.Version;
 import ucar.nc2.Variable;
 
-public class DataCubeDaymet implements DataCube {
+public class DataCubeDaymet implements DataCubeFile {
 
 	Dimension lonCoordinateDim;
 	Dimension latCoordinateDim;
@@ -51,7 +55,103 @@ public class DataCubeDaymet implements DataCube {
 
 	NetcdfFileWriter dataFile;
 
+	/** Write each layer to disk as soon as it is added rather than holding the whole cube. */
+	final boolean streaming;
+	/** When streaming, flush to disk after this many layers. */
+	int flushInterval = 1;
+	int layersSinceFlush;
+
+	public DataCubeDaymet() { this(false); }
+
+	/** @param streaming if true, the file is created by initialize() and each layer
+	 *  is written by addDataLayer(), so only one layer is held in memory and the
+	 *  layers written so far survive a failure later in the run. */
+	public DataCubeDaymet(boolean streaming) { this.streaming = streaming; }
+
+	/** Storage of the output variable; null for each initializer's original format. */
+	OutputFormat format;
+
+	/** Set the version, chunking, compression and packing of the output; call before initializing. */
+	public void setOutputFormat(OutputFormat format) { this.format = format; }
+
+	/** Cell state variables saved in appendable files, in {@link CellStates} order. */
+	public static final String[] STATE_VARIABLES = {"state_cold_hardening", "state_gain", "state_loss", "state_survival"};
+	/** Scalar variable holding the last year simulated into the saved state. */
+	public static final String STATE_YEAR = "state_year";
+	/** Global attribute of appendable files: layer i is computed from year model_start_year + i. */
+	public static final String START_YEAR = "model_start_year";
+
+	/** Give the file an unlimited year dimension and room for the cells' final state, so later years can be appended. */
+	boolean appendable;
+	int startYear;
+	Variable[] stateVars;
+	Variable stateYearVar;
+
+	/* State to write with the file, one [col][row] grid per state variable. */
+	double[][][] stateGrids;
+	int stateYear;
+
+	/** Write the file so that later years can be added with {@link #openForAppend}; call before initializing. */
+	public void setAppendable(boolean appendable) { this.appendable = appendable; }
+
+	/** Number of members along the dimension after the year, 0 for a plain [year][y][x] cube. */
+	int nMembers;
+	String memberDimName;
+	/* Variables along the member dimension, such as each member's parameters. */
+	Map<String, double[]> memberValues;
+	List<Variable> memberVars;
+
+	/**
+	 * Give the output a dimension after the year with one member per model run sharing the
+	 * same cells, such as an ensemble of parameter sets. Layers are then added with
+	 * addMemberLayer(). Call before initializing.
+	 *
+	 * @param dimName name of the dimension
+	 * @param memberValues variables along the dimension, each with a value per member
+	 */
+	public void setMembers(String dimName, int nMembers, Map<String, double[]> memberValues)
+	{
+		for (double[] values : memberValues.values())
+			if (values.length != nMembers) throw new IllegalArgumentException("Each member variable needs " + nMembers + " values");
+		this.memberDimName = dimName;
+		this.nMembers = nMembers;
+		this.memberValues = new LinkedHashMap<String, double[]>(memberValues);
+	}
+
+	/* Further [year][y][x] variables beside survival, by name, with their units. */
+	Map<String, String> layerVariableUnits = new LinkedHashMap<String, String>();
+	Map<String, Variable> layerVars;
+	Map<String, Array> layerData;
+
+	/** Add another variable with a [col][row] layer per year beside survival, such as a diagnostic
+	 *  of the same run. Its layers are added with addVariableLayer() and stored as doubles, unpacked.
+	 *  Call before initializing. */
+	public void addLayerVariable(String name, String units)
+	{
+		layerVariableUnits.put(name, units);
+	}
+
+	/** Add a year's [col][row] layer of a variable named with addLayerVariable(). */
+	public void addVariableLayer(String name, int layer, double[][] dat) {
+		Variable var = (layerVars == null) ? null : layerVars.get(name);
+		if (var == null) throw new IllegalArgumentException(name + " is not a layer variable of the output");
+		if (streaming) { writeDataLayer(var, new int[] { layer, 0, 0 }, dat); return; }
+		Array values = layerData.get(name);
+		Index valuesIndex = values.getIndex();
+		for (int col = 0; col < dat.length; col++)
+			for (int row = 0; row < dat[0].length; row++)
+			{
+				valuesIndex.set(layer, col, row);
+				values.setDouble(valuesIndex, dat[col][row]);
+			}
+	}
+
+	/** When streaming, how many layers to write between flushes to disk. */
+	public void setFlushInterval(int flushInterval) { this.flushInterval = Math.max(1, flushInterval); }
+
 	public void addDataLayer(int layer, double[][] dat) {
+		if (nMembers > 0) throw new IllegalStateException("Layers of a cube with members are added with addMemberLayer()");
+		if (streaming) { writeDataLayer(survivalVar, new int[] { layer, 0, 0 }, dat); return; }
 		index = data.getIndex();
 		int nCol = dat.length;
 		int nRow = dat[0].length;
@@ -65,18 +165,66 @@ public class DataCubeDaymet implements DataCube {
 			}
 	}
 
+	/** Add one member's [col][row] layer for a year to a cube with members, see setMembers(). */
+	public void addMemberLayer(int layer, int member, double[][] dat) {
+		if (streaming) { writeDataLayer(survivalVar, new int[] { layer, member, 0, 0 }, dat); return; }
+		index = data.getIndex();
+		for (int col = 0; col < dat.length; col++)
+			for (int row = 0; row < dat[0].length; row++)
+			{
+				index.set(layer, member, col, row);
+				data.setDouble(index, dat[col][row]);
+			}
+	}
+
+	/** Write one layer straight to the file with a sectioned write. Only survival is packed.
+	 *  @param origin the layer's corner in the output variable, ending with 0, 0 for y and x */
+	private void writeDataLayer(Variable var, int[] origin, double[][] dat) {
+		int nCol = dat.length;
+		int nRow = dat[0].length;
+		int layer = origin[0];
+		if (data == null)
+		{
+			int[] shape = new int[origin.length];
+			Arrays.fill(shape, 1);
+			shape[shape.length - 2] = nCol;
+			shape[shape.length - 1] = nRow;
+			data = Array.factory(DataType.DOUBLE, shape);
+		}
+		/* A single layer, so the flat index is the grid offset. */
+		for (int col = 0; col < nCol; col++)
+			for (int row = 0; row < nRow; row++)
+				data.setDouble(col * nRow + row, dat[col][row]);
+		try {
+			dataFile.write(var, origin, (var == survivalVar) ? format.pack(data) : data);
+			if (++layersSinceFlush >= flushInterval)
+			{
+				dataFile.flush();
+				layersSinceFlush = 0;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write layer " + layer + " of " + dataFile.getNetcdfFile().getLocation(), e);
+		} catch (InvalidRangeException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/** Initializer for the R & B survival calculation methods. */
-	public int[][] initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear) {
+	public ActiveCells initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear) {
 		return initialize(filenameTemplateDest, filenameOutput, startYear, endYear, "percent_survival",
 				"winter_ending_in", 1);
 	}
 
 	/** More general initializer, with options for other calculations methods. */
-	public int[][] initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear,
+	public ActiveCells initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear,
 			String survivalVarName, String yearVarName, int date_coordinate_offset) {
 
 		this.yearVarName = yearVarName;
 		this.survivalVarName = survivalVarName;
+		this.startYear = startYear;
+		if (appendable && nMembers > 0) throw new IllegalStateException("Files with members can't be appended to");
+		if (appendable && !layerVariableUnits.isEmpty()) throw new IllegalStateException("Files with layer variables can't be appended to");
+		if (nMembers > 0 && !layerVariableUnits.isEmpty()) throw new IllegalStateException("Files with members can't have layer variables");
 
 		/* Use the first year's min temp file as a template */
 		// String filenameTemplateDest = inputDataDirectory + tileID + "_" + startYear +
@@ -104,7 +252,8 @@ public class DataCubeDaymet implements DataCube {
 		try {
 
 			NetcdfFile templateNCDF = NetcdfFile.open(filenameTemplateDest);
-			dataFile = NetcdfFileWriter.createNew(Version.netcdf3, filenameOutput);
+			if (format == null) format = OutputFormat.netcdf3();
+			dataFile = format.createWriter(filenameOutput);
 
 			/* Make copies of the projection info, and the lat/lon coordinates. */
 			conic = new Variable(templateNCDF.findVariable("lambert_conformal_conic"));
@@ -118,14 +267,19 @@ public class DataCubeDaymet implements DataCube {
 			latCoordinateArray = Array.factory(templateNCDF.findVariable("y").read().copyToNDJavaArray());
 			lonCoordinateArray = Array.factory(templateNCDF.findVariable("x").read().copyToNDJavaArray());
 
-			templateDataArray = templateNCDF.findVariable("tmin").read().copy();
+			/* Only the first day is needed to build the mask. */
+			Variable templateVar = templateNCDF.findVariable("tmin");
+			int[] templateShape = templateVar.getShape();
+			templateShape[0] = 1;
+			templateDataArray = templateVar.read(new int[] {0, 0, 0}, templateShape);
 
 			otherNonSpatialVariablesSource.add(conic);
 
 			/* Create the year coordinate dimensions. */
 			// dateCoordinateDim = dataFile.addDimension(null, "winter_ending_in", nYears +
 			// 1);
-			dateCoordinateDim = dataFile.addDimension(null, yearVarName, nYears + 1);
+			if (appendable) dateCoordinateDim = dataFile.addUnlimitedDimension(yearVarName);
+			else dateCoordinateDim = dataFile.addDimension(null, yearVarName, nYears + 1);
 			List<Dimension> dateDims = new ArrayList<Dimension>();
 			dateDims.add(dateCoordinateDim);
 			// dateCoordinateVar = dataFile.addVariable(null, "winter_ending_in",
@@ -156,16 +310,44 @@ public class DataCubeDaymet implements DataCube {
 			/* Build the survival output array. */
 			List<Dimension> survivalDims = new ArrayList<Dimension>();
 			survivalDims.add(dateCoordinateDim);
+			if (nMembers > 0)
+			{
+				survivalDims.add(dataFile.addDimension(null, memberDimName, nMembers));
+				memberVars = new ArrayList<Variable>();
+				for (String name : memberValues.keySet())
+					memberVars.add(dataFile.addVariable(null, name, DataType.DOUBLE, memberDimName));
+			}
 			survivalDims.add(latDim);
 			survivalDims.add(lonDim);
 			// survivalVar = dataFile.addVariable(null, "predicted_survival",
 			// DataType.DOUBLE, survivalDims);
-			survivalVar = dataFile.addVariable(null, survivalVarName, DataType.DOUBLE, survivalDims);
+			survivalVar = dataFile.addVariable(null, survivalVarName, format.getDataType(), survivalDims);
+			format.addAttributes(survivalVar);
+
+			layerVars = new LinkedHashMap<String, Variable>();
+			for (Map.Entry<String, String> v : layerVariableUnits.entrySet())
+			{
+				Variable var = dataFile.addVariable(null, v.getKey(), DataType.DOUBLE, survivalDims);
+				var.addAttribute(new Attribute("units", v.getValue()));
+				layerVars.put(v.getKey(), var);
+			}
+
+			if (appendable)
+			{
+				stateVars = new Variable[STATE_VARIABLES.length];
+				for (int i = 0; i < stateVars.length; i++)
+					stateVars[i] = dataFile.addVariable(null, STATE_VARIABLES[i], DataType.DOUBLE, lonLatDims);
+				stateYearVar = dataFile.addVariable(null, STATE_YEAR, DataType.INT, "");
+			}
 
 			int nRows = latArray.getShape()[1];
 			int nCols = latArray.getShape()[0];
 
-			data = Array.factory(DataType.DOUBLE, new int[] { nYears + 1, nCols, nRows });
+			if (!streaming && nMembers > 0) data = Array.factory(DataType.DOUBLE, new int[] { nYears + 1, nMembers, nCols, nRows });
+			else if (!streaming) data = Array.factory(DataType.DOUBLE, new int[] { nYears + 1, nCols, nRows });
+			layerData = new LinkedHashMap<String, Array>();
+			if (!streaming) for (String name : layerVars.keySet())
+				layerData.put(name, Array.factory(DataType.DOUBLE, new int[] { nYears + 1, nCols, nRows }));
 
 			/* Projection info: */
 			conicVar = dataFile.addVariable(null, "lambert_conformal_conic", DataType.SHORT, conic.getDimensionsAll());
@@ -182,32 +364,79 @@ public class DataCubeDaymet implements DataCube {
 
 			for (Attribute a : globalAttributes)
 				dataFile.addGroupAttribute(null, a);
+			if (appendable) dataFile.addGroupAttribute(null, new Attribute(START_YEAR, startYear));
+
+			if (streaming)
+			{
+				dataFile.create();
+				writeCoordinates();
+				dataFile.flush();
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException("Could not set up " + filenameOutput + " from " + filenameTemplateDest, e);
+		} catch (InvalidRangeException e) {
+			throw new IllegalStateException(e);
 		}
 
 		/* Mark the cells not to process: */
 		Index lonIndex = lonArray.getIndex();
-		Index datIndex = data.getIndex();
-		Index tempIndex = templateDataArray.getIndex();
-		int[][] maskArray = new int[lonIndex.getShape(0)][lonIndex.getShape(1)];
-		for (int year = 0; year < nYears; year++)
-			for (int col = 0; col < maskArray.length; col++)
-				for (int row = 0; row < maskArray[0].length; row++) {
-					tempIndex.set(0, col, row);
-					if (templateDataArray.getDouble(tempIndex) < -900) {
-						datIndex.set(year, col, row);
-						data.setDouble(datIndex, -1);
-						maskArray[col][row] = -1;
-					}
-				}
-		return maskArray;
+		ActiveCells cells = templateCells(templateDataArray, lonIndex.getShape(0), lonIndex.getShape(1));
+		if (!streaming)
+		{
+			Index datIndex = data.getIndex();
+			for (int col = 0; col < cells.getNcols(); col++)
+				for (int row = 0; row < cells.getNrows(); row++)
+					if (!cells.isActive(col, row))
+						for (int year = 0; year < nYears; year++) {
+							if (nMembers == 0)
+							{
+								datIndex.set(year, col, row);
+								data.setDouble(datIndex, -1);
+							}
+							else for (int member = 0; member < nMembers; member++)
+							{
+								datIndex.set(year, member, col, row);
+								data.setDouble(datIndex, -1);
+							}
+						}
+		}
+		return cells;
+	}
+
+	/** @return the cells holding data in a template tmin file, as initialize() finds them */
+	public static ActiveCells templateCells(String templateFile) throws IOException
+	{
+		NetcdfFile ncfile = NetcdfFile.open(templateFile);
+		try {
+			Variable tmin = ncfile.findVariable("tmin");
+			int[] shape = tmin.getShape();
+			int nCol = shape[1], nRow = shape[2];
+			shape[0] = 1;
+			return templateCells(tmin.read(new int[] { 0, 0, 0 }, shape), nCol, nRow);
+		} catch (InvalidRangeException e) {
+			throw new IllegalStateException(e);
+		} finally { ncfile.close(); }
+	}
+
+	/** @param templateDay the first day of a template's tmin, shape {1, nCol, nRow}
+	 *  @return the cells holding data, the rest are below -900 */
+	static ActiveCells templateCells(Array templateDay, int nCol, int nRow)
+	{
+		Index tempIndex = templateDay.getIndex();
+		BitSet valid = new BitSet(nCol * nRow);
+		for (int col = 0; col < nCol; col++)
+			for (int row = 0; row < nRow; row++) {
+				tempIndex.set(0, col, row);
+				if (!(templateDay.getDouble(tempIndex) < -900)) valid.set(col * nRow + row);
+			}
+		return new ActiveCells(nCol, nRow, valid);
 	}
 
 	public void initializeSaveFile(String filename, int startYear, int endYear, int nCol, int nRow,
 			TemperatureCube weather) throws IOException {
 		int nYears = endYear - startYear + 1;
-		dataFile = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf4, filename);
+		if (format == null) format = OutputFormat.netcdf4(0, null);
+		dataFile = format.createWriter(filename);
 
 		if (nRow < 0) {
 			nCol = weather.getNcols();
@@ -230,28 +459,178 @@ public class DataCubeDaymet implements DataCube {
 
 		// survivalVar = dataFile.addVariable(null, "percent_survival", DataType.DOUBLE,
 		// dims);
-		survivalVar = dataFile.addVariable(null, survivalVarName, DataType.DOUBLE, dims);
+		survivalVar = dataFile.addVariable(null, survivalVarName, format.getDataType(), dims);
+		format.addAttributes(survivalVar);
 		data = Array.factory(DataType.DOUBLE, new int[] { nYears, nCol, nRow });
 	}
 
+	/** Write everything but the survival data to a file that has been created. */
+	private void writeCoordinates() throws IOException, InvalidRangeException {
+		dataFile.write(latCoordinateVar, latCoordinateArray);
+		dataFile.write(lonCoordinateVar, lonCoordinateArray);
+		for (int i = 0; i < otherSpatialVariables.size(); i++)
+			dataFile.write(otherSpatialVariables.get(i), otherSpatialArrays.get(i));
+		for (int i = 0; i < otherNonSpatialVariablesDest.size(); i++)
+			dataFile.write(otherNonSpatialVariablesDest.get(i), otherNonSpatialVariablesSource.get(i).read());
+		dataFile.write(dateCoordinateVar, Array.factory(dateCoordinate));
+		if (memberVars != null)
+		{
+			int i = 0;
+			for (double[] values : memberValues.values())
+				dataFile.write(memberVars.get(i++), Array.factory(values));
+		}
+	}
+
+	/** Write the file, or when streaming, finish and close it. */
 	public void writeOutputFile() {
 		try {
-			dataFile.create();
-			dataFile.write(latCoordinateVar, latCoordinateArray);
-			dataFile.write(lonCoordinateVar, lonCoordinateArray);
-			for (int i = 0; i < otherSpatialVariables.size(); i++)
-				dataFile.write(otherSpatialVariables.get(i), otherSpatialArrays.get(i));
-			for (int i = 0; i < otherNonSpatialVariablesDest.size(); i++)
-				dataFile.write(otherNonSpatialVariablesDest.get(i), otherNonSpatialVariablesSource.get(i).read());
-			dataFile.write(dateCoordinateVar, Array.factory(dateCoordinate));
-			dataFile.write(survivalVar, data);
+			if (!streaming)
+			{
+				dataFile.create();
+				writeCoordinates();
+				dataFile.write(survivalVar, format.pack(data));
+				if (layerData != null) for (Map.Entry<String, Array> v : layerData.entrySet())
+					dataFile.write(layerVars.get(v.getKey()), v.getValue());
+			}
+			if (stateGrids != null) writeState();
 			dataFile.close();
 			// templateNCDF.close();
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new UncheckedIOException("Could not write " + dataFile.getNetcdfFile().getLocation(), e);
+		} catch (InvalidRangeException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Keep the cells' state at the end of the run, to be written with the file
+	 * so that later years can be appended without rerunning the earlier ones.
+	 *
+	 * @param lastYear the last year simulated into the state
+	 */
+	public void saveState(CellStates states, ActiveCells cells, int lastYear)
+	{
+		if (!appendable) throw new IllegalStateException("The cells' state is only saved in appendable files");
+		double[][] arrays = new double[][] {states.coldHardening, states.gain, states.loss, states.survival};
+		stateGrids = new double[arrays.length][][];
+		for (int i = 0; i < arrays.length; i++)
+			stateGrids[i] = cells.toGrid(arrays[i], new double[cells.getNcols()][cells.getNrows()]);
+		stateYear = lastYear;
+	}
+
+	private void writeState() throws IOException, InvalidRangeException
+	{
+		for (int i = 0; i < stateVars.length; i++)
+			dataFile.write(stateVars[i], Array.factory(stateGrids[i]));
+		Array year = Array.factory(DataType.INT, new int[0]);
+		year.setInt(year.getIndex(), stateYear);
+		dataFile.write(stateYearVar, year);
+	}
+
+	/**
+	 * Reopen a file written with setAppendable(true) to add more years to it. <br>
+	 * Layers are then added with appendLayer(), and the file is closed by writeOutputFile().
+	 *
+	 * @throws IOException if the file can't be opened or was not written to be appended to
+	 */
+	public static DataCubeDaymet openForAppend(String filename, String survivalVarName, String yearVarName) throws IOException
+	{
+		DataCubeDaymet cube = new DataCubeDaymet(true);
+		cube.appendable = true;
+		cube.survivalVarName = survivalVarName;
+		cube.yearVarName = yearVarName;
+		cube.dataFile = NetcdfFileWriter.openExisting(filename);
+		try {
+			Attribute start = cube.dataFile.getNetcdfFile().findGlobalAttribute(START_YEAR);
+			cube.stateYearVar = cube.dataFile.findVariable(STATE_YEAR);
+			cube.survivalVar = cube.dataFile.findVariable(survivalVarName);
+			cube.dateCoordinateVar = cube.dataFile.findVariable(yearVarName);
+			if (start == null || cube.stateYearVar == null || cube.survivalVar == null || cube.dateCoordinateVar == null)
+				throw new IOException(filename + " was not written to be appended to");
+
+			cube.startYear = start.getNumericValue().intValue();
+			cube.stateYear = cube.stateYearVar.readScalarInt();
+			cube.dateCoordinate = (int[]) cube.dateCoordinateVar.read().get1DJavaArray(int.class);
+			cube.stateVars = new Variable[STATE_VARIABLES.length];
+			for (int i = 0; i < STATE_VARIABLES.length; i++)
+				cube.stateVars[i] = cube.dataFile.findVariable(STATE_VARIABLES[i]);
+			cube.format = OutputFormat.of(cube.dataFile.getVersion(), cube.survivalVar);
+		} catch (IOException | RuntimeException e) {
+			cube.dataFile.close();
+			throw e;
+		}
+		return cube;
+	}
+
+	/** The year the file's first layer was computed from. */
+	public int getStartYear() { return startYear; }
+
+	/** The last year simulated into the saved state; the next layer appended is for the year after. */
+	public int getStateYear() { return stateYear; }
+
+	/** @return the cells that have a saved state, read from a file opened with openForAppend() */
+	public ActiveCells readActiveCells() throws IOException
+	{
+		double[][] survival = readGrid(stateVars[3]);
+		int nCol = survival.length, nRow = survival[0].length;
+		BitSet valid = new BitSet(nCol * nRow);
+		for (int col = 0; col < nCol; col++) for (int row = 0; row < nRow; row++)
+			if (!Double.isNaN(survival[col][row])) valid.set(col * nRow + row);
+		return new ActiveCells(nCol, nRow, valid);
+	}
+
+	/** Restore the saved state of the active cells from a file opened with openForAppend(). */
+	public void readState(CellStates states, ActiveCells cells) throws IOException
+	{
+		double[][] arrays = new double[][] {states.coldHardening, states.gain, states.loss, states.survival};
+		for (int i = 0; i < arrays.length; i++)
+			cells.fromGrid(readGrid(stateVars[i]), arrays[i]);
+	}
+
+	private static double[][] readGrid(Variable var) throws IOException
+	{
+		return (double[][]) var.read().copyToNDJavaArray();
+	}
+
+	/**
+	 * Open a finished output to rewrite some of its layers in place, with addDataLayer() and
+	 * addVariableLayer(). Layers are written as they are added, in the file's own storage; call
+	 * writeOutputFile() to close it. Every other variable shaped like the output variable can be
+	 * written as a layer variable.
+	 */
+	public static DataCubeDaymet openForUpdate(String filename, String survivalVarName) throws IOException
+	{
+		DataCubeDaymet cube = new DataCubeDaymet(true);
+		cube.survivalVarName = survivalVarName;
+		cube.dataFile = NetcdfFileWriter.openExisting(filename);
+		try {
+			cube.survivalVar = cube.dataFile.findVariable(survivalVarName);
+			if (cube.survivalVar == null) throw new IOException(filename + " has no variable " + survivalVarName);
+			if (cube.survivalVar.getRank() != 3) throw new IOException("Only [year][y][x] outputs can be updated");
+			cube.format = OutputFormat.of(cube.dataFile.getVersion(), cube.survivalVar);
+			cube.layerVars = new LinkedHashMap<String, Variable>();
+			for (Variable var : cube.dataFile.getNetcdfFile().getVariables())
+				if (var != cube.survivalVar && var.getDimensions().equals(cube.survivalVar.getDimensions()))
+					cube.layerVars.put(var.getShortName(), var);
+		} catch (IOException | RuntimeException e) {
+			cube.dataFile.close();
+			throw e;
+		}
+		return cube;
+	}
+
+	/** Write the layer for a year after the last one in a file opened with openForAppend(). */
+	public void appendLayer(int year, double[][] dat)
+	{
+		int layer = year - startYear;
+		try {
+			dataFile.write(dateCoordinateVar, new int[] { layer }, Array.factory(new int[] { dateCoordinate[0] + layer }));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write year " + year + " to " + dataFile.getNetcdfFile().getLocation(), e);
 		} catch (InvalidRangeException e) {
-			e.printStackTrace();
+			throw new IllegalStateException(e);
 		}
+		writeDataLayer(survivalVar, new int[] { layer, 0, 0 }, dat);
 	}
 
 	// /** Default, save using the settings from the temperature cube. */
@@ -273,7 +652,7 @@ public class DataCubeDaymet implements DataCube {
 		dataFile.write(lonCoordinateVar, lonCoordinateArray);
 		dataFile.write(latCoordinateVar, latCoordinateArray);
 		dataFile.write(dateCoordinateVar, Array.factory(years));
-		dataFile.write(survivalVar, data);
+		dataFile.write(survivalVar, format.pack(data));
 		dataFile.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package utils;
+
+import java.io.IOException;
+
+import ucar.ma2.InvalidRangeException;
+
+/** A {@link DataCube} that creates and finishes its own output file.
+ *
+ * @author michaelfrancenelson */
+public interface DataCubeFile extends DataCube {
+
+	public void initializeSaveFile(String filename, int startYear, int endYear, int nCol, int nRow, TemperatureCube weather) throws IOException;
+	public void finalizeSaveFile(int startYear, int endYear) throws IOException, InvalidRangeException;
+}
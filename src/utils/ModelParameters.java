@@ -0,0 +1,155 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** One set of the constants of the Regniere and Bentz model, for ensemble runs. <br>
+ *  {@link #DEFAULT} holds the published values used by {@link RegniereBentzMPBCalculator}'s
+ *  own equations. Other sets are made from it with {@link #with(String, double)} or read
+ *  from a CSV file; a set is immutable, so members may be shared between threads. <br>
+ *  Parameters are named as in {@link #NAMES}, after the calculator's constants.
+ *
+ * @author michaelfrancenelson */
+public class ModelParameters {
+
+	/** Names of the parameters, in the order of {@link #toArray()}. */
+	public static final String[] NAMES = {
+			"delta_max", "temperature_const", "tau_min_const",
+			"mean_scp_alpha_1", "spread_scp_beta_1",
+			"mean_scp_alpha_2", "spread_scp_beta_2",
+			"mean_scp_alpha_3", "spread_scp_beta_3",
+			"max_gain_rate_rho_g", "spread_gain_sigma_g",
+			"optimal_gain_temp_mu_g", "optimal_gain_temp_slope_kappa_g",
+			"max_loss_rate_rho_l", "spread_loss_sigma_l",
+			"optimal_loss_temp_mu_l", "optimal_loss_slope_kappa_l",
+			"threshold_lambda_0", "threshold_lambda_1"
+	};
+
+	/** The published values, the same as the calculator's constants. */
+	public static final ModelParameters DEFAULT = new ModelParameters(new double[] {
+			RegniereBentzMPBCalculator.DELTA_MAX, RegniereBentzMPBCalculator.TEMPERATURE_CONST, RegniereBentzMPBCalculator.TAU_MIN_CONST,
+			RegniereBentzMPBCalculator.MEAN_SCP_ALPHA_1, RegniereBentzMPBCalculator.SPREAD_SCP_BETA_1,
+			RegniereBentzMPBCalculator.MEAN_SCP_ALPHA_2, RegniereBentzMPBCalculator.SPREAD_SCP_BETA_2,
+			RegniereBentzMPBCalculator.MEAN_SCP_ALPHA_3, RegniereBentzMPBCalculator.SPREAD_SCP_BETA_3,
+			RegniereBentzMPBCalculator.MAX_GAIN_RATE_RHO_G, RegniereBentzMPBCalculator.SPREAD_GAIN_SIGMA_G,
+			RegniereBentzMPBCalculator.OPTIMAL_GAIN_TEMP_MU_G, RegniereBentzMPBCalculator.OPTIMAL_GAIN_TEMP_SLOPE_KAPPA_G,
+			RegniereBentzMPBCalculator.MAX_LOSS_RATE_RHO_L, RegniereBentzMPBCalculator.SPREAD_LOSS_SIGMA_L,
+			RegniereBentzMPBCalculator.OPTIMAL_LOSS_TEMP_MU_L, RegniereBentzMPBCalculator.OPTIMAL_LOSS_SLOPE_KAPPA_L,
+			RegniereBentzMPBCalculator.THRESHOLD_LAMBDA_0, RegniereBentzMPBCalculator.THRESHOLD_LAMBDA_1
+	});
+
+	/** Equations 11 and 12 */
+	public final double deltaMax, temperatureConst, tauMinConst;
+	/** SCP distributions of states 1 to 3 */
+	public final double meanScpAlpha1, spreadScpBeta1, meanScpAlpha2, spreadScpBeta2, meanScpAlpha3, spreadScpBeta3;
+	/** Gain, equations 3 and 5 */
+	public final double maxGainRateRhoG, spreadGainSigmaG, optimalGainTempMuG, optimalGainTempSlopeKappaG;
+	/** Loss, equations 4 and 6 */
+	public final double maxLossRateRhoL, spreadLossSigmaL, optimalLossTempMuL, optimalLossSlopeKappaL;
+	/** State transition thresholds, equation 9 */
+	public final double thresholdLambda0, thresholdLambda1;
+
+	private ModelParameters(double[] values)
+	{
+		if (values.length != NAMES.length)
+			throw new IllegalArgumentException("Expected " + NAMES.length + " parameters, got " + values.length);
+		deltaMax = values[0];
+		temperatureConst = values[1];
+		tauMinConst = values[2];
+		meanScpAlpha1 = values[3];
+		spreadScpBeta1 = values[4];
+		meanScpAlpha2 = values[5];
+		spreadScpBeta2 = values[6];
+		meanScpAlpha3 = values[7];
+		spreadScpBeta3 = values[8];
+		maxGainRateRhoG = values[9];
+		spreadGainSigmaG = values[10];
+		optimalGainTempMuG = values[11];
+		optimalGainTempSlopeKappaG = values[12];
+		maxLossRateRhoL = values[13];
+		spreadLossSigmaL = values[14];
+		optimalLossTempMuL = values[15];
+		optimalLossSlopeKappaL = values[16];
+		thresholdLambda0 = values[17];
+		thresholdLambda1 = values[18];
+	}
+
+	/** The values, in the order of {@link #NAMES}. */
+	public double[] toArray()
+	{
+		return new double[] {
+				deltaMax, temperatureConst, tauMinConst,
+				meanScpAlpha1, spreadScpBeta1, meanScpAlpha2, spreadScpBeta2, meanScpAlpha3, spreadScpBeta3,
+				maxGainRateRhoG, spreadGainSigmaG, optimalGainTempMuG, optimalGainTempSlopeKappaG,
+				maxLossRateRhoL, spreadLossSigmaL, optimalLossTempMuL, optimalLossSlopeKappaL,
+				thresholdLambda0, thresholdLambda1 };
+	}
+
+	public double get(String name) { return toArray()[indexOf(name)]; }
+
+	/** @return a copy of this set with one parameter changed */
+	public ModelParameters with(String name, double value)
+	{
+		double[] values = toArray();
+		values[indexOf(name)] = value;
+		return new ModelParameters(values);
+	}
+
+	private static int indexOf(String name)
+	{
+		int i = Arrays.asList(NAMES).indexOf(name);
+		if (i < 0) throw new IllegalArgumentException("No model parameter named " + name);
+		return i;
+	}
+
+	/**
+	 * Read an ensemble, one member per line. <br>
+	 * The first line names the columns from {@link #NAMES}; parameters without a column keep
+	 * their {@link #DEFAULT} value. Blank lines and lines starting with # are skipped.
+	 */
+	public static List<ModelParameters> readCsv(String filename) throws IOException
+	{
+		List<ModelParameters> members = new ArrayList<ModelParameters>();
+		int[] columns = null;
+		int lineNumber = 0;
+		for (String line : Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8))
+		{
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = line.split(",");
+			if (columns == null)
+			{
+				columns = new int[fields.length];
+				for (int i = 0; i < fields.length; i++) columns[i] = indexOf(fields[i].trim());
+				continue;
+			}
+			if (fields.length != columns.length)
+				throw new IOException(filename + " line " + lineNumber + " has " + fields.length + " values, expected " + columns.length);
+			double[] values = DEFAULT.toArray();
+			try {
+				for (int i = 0; i < fields.length; i++) values[columns[i]] = Double.parseDouble(fields[i].trim());
+			} catch (NumberFormatException e) {
+				throw new IOException(filename + " line " + lineNumber + ": " + e.getMessage());
+			}
+			members.add(new ModelParameters(values));
+		}
+		if (members.isEmpty()) throw new IOException(filename + " holds no parameter sets");
+		return members;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder s = new StringBuilder();
+		double[] values = toArray();
+		for (int i = 0; i < NAMES.length; i++)
+			s.append(i == 0 ? "" : ", ").append(NAMES[i]).append('=').append(values[i]);
+		return s.toString();
+	}
+}
@@ -0,0 +1,240 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+/** One output file covering many Daymet tiles on their shared Lambert conformal grid. <br>
+ *  The grid is the union of the tiles' x/y coordinates. Each tile writes its layers straight
+ *  into its own window of the file through a {@link DataCube} from {@link #newTile()}, so no
+ *  stitching step is needed afterwards. <br>
+ *  Tiles' grids overlap at their edges, where one tile's cells are missing data and the
+ *  neighbor's are not, so only a tile's active cells are written. Writes are serialized,
+ *  so tiles may run on several threads at once. Cells no tile covers are left as fill values.
+ *
+ * @author michaelfrancenelson */
+public class MosaicWriter implements Closeable {
+
+	private final NetcdfFileWriter dataFile;
+	private final OutputFormat format;
+	private final int startYear, endYear;
+
+	private Variable survivalVar, latVar, lonVar;
+
+	/* First coordinate and spacing of the mosaic's grid. */
+	private double x0, dx, y0, dy;
+
+	private MosaicWriter(NetcdfFileWriter dataFile, OutputFormat format, int startYear, int endYear)
+	{
+		this.dataFile = dataFile;
+		this.format = format;
+		this.startYear = startYear;
+		this.endYear = endYear;
+	}
+
+	/**
+	 * Create the mosaic file, sized to hold every tile.
+	 *
+	 * @param templateFiles a tmin file from each tile; the first also supplies the projection and attributes
+	 * @param survivalVarName name of the output variable
+	 * @param yearVarName name of the year dimension
+	 * @param date_coordinate_offset layer i is labeled startYear + i + date_coordinate_offset
+	 * @param format null for uncompressed NetCDF-3 doubles
+	 */
+	public static MosaicWriter create(String filename, List<String> templateFiles, int startYear, int endYear,
+			String survivalVarName, String yearVarName, int date_coordinate_offset, OutputFormat format) throws IOException
+	{
+		if (format == null) format = OutputFormat.netcdf3();
+
+		/* The extent of the tiles' grids, which share a spacing. */
+		double dx = 0, dy = 0;
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (String template : templateFiles)
+		{
+			NetcdfFile ncfile = NetcdfFile.open(template);
+			try {
+				double[] x = (double[]) ncfile.findVariable("x").read().get1DJavaArray(double.class);
+				double[] y = (double[]) ncfile.findVariable("y").read().get1DJavaArray(double.class);
+				if (dx == 0) { dx = x[1] - x[0]; dy = y[1] - y[0]; }
+				minX = Math.min(minX, Math.min(x[0], x[x.length - 1]));
+				maxX = Math.max(maxX, Math.max(x[0], x[x.length - 1]));
+				minY = Math.min(minY, Math.min(y[0], y[y.length - 1]));
+				maxY = Math.max(maxY, Math.max(y[0], y[y.length - 1]));
+			} finally { ncfile.close(); }
+		}
+		int nX = (int) Math.round((maxX - minX) / Math.abs(dx)) + 1;
+		int nY = (int) Math.round((maxY - minY) / Math.abs(dy)) + 1;
+
+		NetcdfFileWriter writer = format.createWriter(filename);
+		/* A regional mosaic easily passes the 2 GiB limit of the classic format, so use 64 bit offsets. */
+		if (!format.getVersion().isNetdf4format()) writer.setLargeFile(true);
+		MosaicWriter mosaic = new MosaicWriter(writer, format, startYear, endYear);
+		mosaic.dx = dx;
+		mosaic.dy = dy;
+		mosaic.x0 = dx > 0 ? minX : maxX;
+		mosaic.y0 = dy > 0 ? minY : maxY;
+
+		NetcdfFileWriter dataFile = mosaic.dataFile;
+		NetcdfFile template = NetcdfFile.open(templateFiles.get(0));
+		try {
+			int nYears = endYear - startYear + 1;
+			Dimension yearDim = dataFile.addDimension(null, yearVarName, nYears);
+			Dimension yDim = dataFile.addDimension(null, "y", nY);
+			Dimension xDim = dataFile.addDimension(null, "x", nX);
+			Variable yearVar = dataFile.addVariable(null, yearVarName, DataType.INT, yearVarName);
+			Variable yVar = dataFile.addVariable(null, "y", DataType.DOUBLE, "y");
+			Variable xVar = dataFile.addVariable(null, "x", DataType.DOUBLE, "x");
+			yVar.addAll(template.findVariable("y").getAttributes());
+			xVar.addAll(template.findVariable("x").getAttributes());
+
+			List<Dimension> grid = new ArrayList<Dimension>();
+			grid.add(yDim);
+			grid.add(xDim);
+			mosaic.latVar = dataFile.addVariable(null, "lat", DataType.DOUBLE, grid);
+			mosaic.lonVar = dataFile.addVariable(null, "lon", DataType.DOUBLE, grid);
+			mosaic.latVar.addAll(template.findVariable("lat").getAttributes());
+			mosaic.lonVar.addAll(template.findVariable("lon").getAttributes());
+			mosaic.latVar.addAttribute(new Attribute("_FillValue", Double.NaN));
+			mosaic.lonVar.addAttribute(new Attribute("_FillValue", Double.NaN));
+
+			List<Dimension> cube = new ArrayList<Dimension>();
+			cube.add(yearDim);
+			cube.addAll(grid);
+			mosaic.survivalVar = dataFile.addVariable(null, survivalVarName, format.getDataType(), cube);
+			format.addAttributes(mosaic.survivalVar);
+			if (format.getStorage() == OutputFormat.Storage.DOUBLE)
+				mosaic.survivalVar.addAttribute(new Attribute("_FillValue", Double.NaN));
+			else if (format.getStorage() == OutputFormat.Storage.FLOAT)
+				mosaic.survivalVar.addAttribute(new Attribute("_FillValue", Float.NaN));
+
+			Variable conic = template.findVariable("lambert_conformal_conic");
+			Variable conicVar = dataFile.addVariable(null, "lambert_conformal_conic", DataType.SHORT, conic.getDimensionsAll());
+			conicVar.addAll(conic.getAttributes());
+			for (Attribute a : template.getGlobalAttributes())
+				dataFile.addGroupAttribute(null, a);
+
+			/* Untouched cells read as missing. */
+			dataFile.setFill(true);
+			dataFile.create();
+
+			int[] years = new int[nYears];
+			for (int i = 0; i < nYears; i++) years[i] = startYear + i + date_coordinate_offset;
+			double[] ys = new double[nY], xs = new double[nX];
+			for (int i = 0; i < nY; i++) ys[i] = mosaic.y0 + i * dy;
+			for (int i = 0; i < nX; i++) xs[i] = mosaic.x0 + i * dx;
+			dataFile.write(yearVar, Array.factory(years));
+			dataFile.write(yVar, Array.factory(ys));
+			dataFile.write(xVar, Array.factory(xs));
+			dataFile.write(conicVar, conic.read());
+			dataFile.flush();
+		} catch (InvalidRangeException e) {
+			dataFile.close();
+			throw new IllegalStateException(e);
+		} catch (IOException | RuntimeException e) {
+			dataFile.close();
+			throw e;
+		} finally { template.close(); }
+		return mosaic;
+	}
+
+	/** An output cube for one tile, writing into its window of the mosaic. */
+	public DataCube newTile() { return new TileWindow(); }
+
+	/** Replace the active cells of one layer of a window, leaving the rest as they are. */
+	private synchronized void writeWindow(int layer, int yOffset, int xOffset, ActiveCells cells, double[][] dat)
+	{
+		int nCol = cells.getNcols(), nRow = cells.getNrows();
+		int[] origin = new int[] { layer, yOffset, xOffset };
+		int[] shape = new int[] { 1, nCol, nRow };
+		try {
+			Array window = survivalVar.read(origin, shape);
+			Array values = Array.factory(DataType.DOUBLE, shape);
+			for (int offset : cells.getOffsets())
+				values.setDouble(offset, dat[offset / nRow][offset % nRow]);
+			Array packed = format.pack(values);
+			for (int offset : cells.getOffsets())
+				window.setDouble(offset, packed.getDouble(offset));
+			dataFile.write(survivalVar, origin, window);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write layer " + layer + " of " + dataFile.getNetcdfFile().getLocation(), e);
+		} catch (InvalidRangeException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private synchronized void writeCoordinates(int yOffset, int xOffset, Array lat, Array lon) throws IOException, InvalidRangeException
+	{
+		dataFile.write(latVar, new int[] { yOffset, xOffset }, lat);
+		dataFile.write(lonVar, new int[] { yOffset, xOffset }, lon);
+	}
+
+	private synchronized void flush() throws IOException { dataFile.flush(); }
+
+	/** Close the file once every tile is finished. */
+	@Override
+	public synchronized void close() throws IOException { dataFile.close(); }
+
+	/** @return the mosaic index of a tile's first coordinate along one axis */
+	private static int offset(double first, double mosaicFirst, double spacing)
+	{
+		double cells = (first - mosaicFirst) / spacing;
+		int offset = (int) Math.round(cells);
+		if (Math.abs(cells - offset) > 1e-3 || offset < 0)
+			throw new IllegalArgumentException("Tile coordinate " + first + " is not on the mosaic's grid");
+		return offset;
+	}
+
+	/** One tile's window of the mosaic. */
+	private class TileWindow implements DataCube {
+
+		private int yOffset, xOffset;
+		private ActiveCells cells;
+
+		/** Locate the tile in the mosaic and write its lat/lon; the output filename is not used. */
+		@Override
+		public ActiveCells initialize(String filenameTemplateDest, String filenameOutput, int startYear, int endYear)
+		{
+			if (startYear != MosaicWriter.this.startYear || endYear > MosaicWriter.this.endYear)
+				throw new IllegalArgumentException("The mosaic holds " + MosaicWriter.this.startYear + " to " + MosaicWriter.this.endYear);
+			try {
+				NetcdfFile template = NetcdfFile.open(filenameTemplateDest);
+				try {
+					Variable tmin = template.findVariable("tmin");
+					int[] shape = tmin.getShape();
+					shape[0] = 1;
+					cells = DataCubeDaymet.templateCells(tmin.read(new int[] { 0, 0, 0 }, shape), shape[1], shape[2]);
+					yOffset = offset(template.findVariable("y").read().getDouble(0), y0, dy);
+					xOffset = offset(template.findVariable("x").read().getDouble(0), x0, dx);
+					writeCoordinates(yOffset, xOffset, template.findVariable("lat").read(), template.findVariable("lon").read());
+				} finally { template.close(); }
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not add " + filenameTemplateDest + " to the mosaic", e);
+			} catch (InvalidRangeException e) {
+				throw new IllegalArgumentException(filenameTemplateDest + " does not fit in the mosaic", e);
+			}
+			return cells;
+		}
+
+		@Override
+		public void addDataLayer(int layer, double[][] dat) { writeWindow(layer, yOffset, xOffset, cells, dat); }
+
+		/** Flush the tile's layers; the mosaic itself is closed by its owner. */
+		@Override
+		public void writeOutputFile()
+		{
+			try { flush(); }
+			catch (IOException e) { throw new UncheckedIOException(e); }
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+import ucar.nc2.write.Nc4Chunking;
+
+/** How a {@link DataCubeDaymet} stores its output variable: the file version,
+ *  chunk shape and compression, and whether values are packed into a smaller type. <br>
+ *  Chunking and compression need NetCDF-4, which netcdf-java writes through the
+ *  native netCDF-C library; NetCDF-3 files can still use the packed types.
+ *
+ * @author michaelfrancenelson */
+public class OutputFormat {
+
+	public enum Storage {
+		/** 8 byte values, as computed. */
+		DOUBLE,
+		/** 4 byte values. */
+		FLOAT,
+		/** 2 byte integers, unpacked by readers as value * scale_factor + add_offset. */
+		SHORT
+	}
+
+	/** Stored in place of NaN when packing to shorts. */
+	public static final short SHORT_FILL = Short.MIN_VALUE;
+
+	/** Survival is in [0, 1], so four decimal places fit easily in a short. */
+	public static final double SURVIVAL_SCALE = 1e-4;
+	/** Temperatures in hundredths of a degree fit in a short. */
+	public static final double TEMPERATURE_SCALE = 1e-2;
+
+	Version version = Version.netcdf3;
+	Storage storage = Storage.DOUBLE;
+	double scaleFactor = 1, addOffset = 0;
+
+	/* NetCDF-4 only. */
+	int[] chunkShape;
+	int deflateLevel;
+	boolean shuffle;
+
+	/** Uncompressed NetCDF-3 doubles, the original format. */
+	public static OutputFormat netcdf3() { return new OutputFormat(); }
+
+	/**
+	 * The format chosen by the runners' -nc4, -float and -short options. <br>
+	 * -nc4 writes deflated NetCDF-4 in chunks of 64 x 64 cells holding every year.
+	 *
+	 * @param packing "-float", "-short" or null to keep doubles
+	 * @param scale the scale factor for -short, {@link #SURVIVAL_SCALE} or {@link #TEMPERATURE_SCALE}
+	 * @return the format, or null for the original NetCDF-3 doubles
+	 */
+	public static OutputFormat fromOptions(boolean nc4, String packing, double scale)
+	{
+		if (!nc4 && packing == null) return null;
+		OutputFormat format = nc4 ? netcdf4(5, new int[] {0, 64, 64}) : netcdf3();
+		if ("-float".equals(packing)) format.packFloat();
+		else if ("-short".equals(packing)) format.packShort(scale, 0);
+		return format;
+	}
+
+	/**
+	 * NetCDF-4 with chunked, deflated output data.
+	 *
+	 * @param deflateLevel 0 (none) to 9 (smallest)
+	 * @param chunkShape chunk length along {year, y, x}; 0 means the whole dimension,
+	 *        so a chunk shape of {0, 64, 64} keeps each cell's time series in one chunk.
+	 *        Outputs with members, [year][member][y][x], get one member per chunk.
+	 */
+	public static OutputFormat netcdf4(int deflateLevel, int[] chunkShape)
+	{
+		OutputFormat format = new OutputFormat();
+		format.version = Version.netcdf4;
+		format.deflateLevel = deflateLevel;
+		format.shuffle = deflateLevel > 0;
+		format.chunkShape = chunkShape;
+		return format;
+	}
+
+	/** The storage an existing output variable was written with, so more layers can be added to it. */
+	public static OutputFormat of(Version version, Variable var)
+	{
+		OutputFormat format = new OutputFormat();
+		format.version = version;
+		if (var.getDataType() == DataType.FLOAT) format.packFloat();
+		else if (var.getDataType() == DataType.SHORT)
+			format.packShort(var.findAttribute("scale_factor").getNumericValue().doubleValue(),
+					var.findAttribute("add_offset").getNumericValue().doubleValue());
+		return format;
+	}
+
+	/** Store the values as 4 byte floats. */
+	public OutputFormat packFloat()
+	{
+		storage = Storage.FLOAT;
+		return this;
+	}
+
+	/** Store the values as shorts, with value = short * scaleFactor + addOffset. */
+	public OutputFormat packShort(double scaleFactor, double addOffset)
+	{
+		storage = Storage.SHORT;
+		this.scaleFactor = scaleFactor;
+		this.addOffset = addOffset;
+		return this;
+	}
+
+	public Version getVersion() { return version; }
+
+	/** Everything that affects the stored values and layout, as used by {@link OutputManifest}. */
+	@Override
+	public String toString()
+	{
+		return version + " " + storage + " scale " + scaleFactor + " offset " + addOffset
+				+ " chunks " + Arrays.toString(chunkShape) + " deflate " + deflateLevel + (shuffle ? " shuffle" : "");
+	}
+
+	public Storage getStorage() { return storage; }
+
+	public NetcdfFileWriter createWriter(String filename) throws IOException
+	{
+		if (version.isNetdf4format())
+			return NetcdfFileWriter.createNew(version, filename, chunking());
+		return NetcdfFileWriter.createNew(version, filename);
+	}
+
+	public DataType getDataType()
+	{
+		switch (storage)
+		{
+		case FLOAT: return DataType.FLOAT;
+		case SHORT: return DataType.SHORT;
+		default: return DataType.DOUBLE;
+		}
+	}
+
+	/** Add the attributes readers need to unpack the output variable. */
+	public void addAttributes(Variable var)
+	{
+		if (storage != Storage.SHORT) return;
+		var.addAttribute(new Attribute("scale_factor", scaleFactor));
+		var.addAttribute(new Attribute("add_offset", addOffset));
+		var.addAttribute(new Attribute("_FillValue", SHORT_FILL));
+	}
+
+	/** @return the double data converted to the storage type, or the data itself if stored as doubles. */
+	public Array pack(Array data)
+	{
+		if (storage == Storage.DOUBLE) return data;
+		Array packed = Array.factory(getDataType(), data.getShape());
+		IndexIterator in = data.getIndexIterator();
+		IndexIterator out = packed.getIndexIterator();
+		while (in.hasNext())
+		{
+			double value = in.getDoubleNext();
+			if (storage == Storage.FLOAT) out.setFloatNext((float) value);
+			else out.setShortNext(packShort(value));
+		}
+		return packed;
+	}
+
+	private short packShort(double value)
+	{
+		if (Double.isNaN(value)) return SHORT_FILL;
+		long packed = Math.round((value - addOffset) / scaleFactor);
+		return (short) Math.max(SHORT_FILL + 1, Math.min(Short.MAX_VALUE, packed));
+	}
+
+	/** Chunk the output data as asked, leave the small coordinate variables to the library. */
+	private Nc4Chunking chunking()
+	{
+		return new Nc4Chunking() {
+			@Override
+			public boolean isChunked(Variable v) { return chunkShape != null && v.getRank() >= chunkShape.length; }
+
+			@Override
+			public long[] computeChunking(Variable v)
+			{
+				int[] shape = v.getShape();
+				long[] chunks = new long[shape.length];
+				for (int i = 0; i < shape.length; i++)
+				{
+					int c = chunkLength(i, shape.length);
+					chunks[i] = (c <= 0 || c > shape[i]) ? Math.max(1, shape[i]) : c;
+				}
+				return chunks;
+			}
+
+			@Override
+			public int getDeflateLevel(Variable v) { return deflateLevel; }
+
+			@Override
+			public boolean isShuffle(Variable v) { return shuffle; }
+		};
+	}
+
+	/** The chunk length along dimension i of a variable of the given rank. The first dimension is
+	 *  the year's and the last ones are y and x, as in chunkShape; any between, such as the members,
+	 *  are one per chunk. */
+	int chunkLength(int i, int rank)
+	{
+		if (chunkShape == null) return 0;
+		int fromEnd = rank - i;
+		if (i == 0) return chunkShape[0];
+		if (fromEnd < chunkShape.length) return chunkShape[chunkShape.length - fromEnd];
+		return 1;
+	}
+}
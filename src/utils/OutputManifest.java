@@ -0,0 +1,123 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/** Records what an output file was computed from, so that a rerun can skip it, or redo only
+ *  the layers whose inputs have changed. <br>
+ *  The manifest sits next to the output as {@code .manifest}. It holds the engine version, a hash
+ *  of the run's configuration, such as the model parameters and output format, and for each layer
+ *  a hash of the names, sizes and modification times of the input files it was computed from. If
+ *  the engine or configuration differ, every layer is stale. <br>
+ *  The manifest is removed before an output is rewritten and saved once it is complete, so an
+ *  output left half written by a failure is never taken as current.
+ *
+ * @author michaelfrancenelson */
+public class OutputManifest {
+
+	/** Bump whenever a change to the model or the products changes their results, to invalidate every manifest. */
+	public static final String ENGINE_VERSION = "1";
+
+	private static final String ENGINE = "engine", CONFIGURATION = "configuration", LAYERS = "layers", LAYER = "layer.";
+
+	private final Path output, manifest, tempFile;
+	private final String configuration;
+	private final String[] layerInputs;
+
+	/**
+	 * @param outputFilename the output the manifest describes
+	 * @param configuration everything other than the input files that the output depends on
+	 * @param layerInputs for each layer, a fingerprint of its input files, see {@link #fingerprint}
+	 */
+	public OutputManifest(String outputFilename, String configuration, String[] layerInputs)
+	{
+		output = Paths.get(outputFilename);
+		manifest = Paths.get(outputFilename + ".manifest");
+		tempFile = Paths.get(outputFilename + ".manifest.tmp");
+		this.configuration = hash(configuration);
+		this.layerInputs = layerInputs.clone();
+	}
+
+	/** @return the layers that must be computed again; every layer if the output or its manifest is missing */
+	public int[] staleLayers()
+	{
+		Properties saved = read();
+		boolean all = saved == null || !Files.exists(output)
+				|| !ENGINE_VERSION.equals(saved.getProperty(ENGINE))
+				|| !configuration.equals(saved.getProperty(CONFIGURATION))
+				|| !String.valueOf(layerInputs.length).equals(saved.getProperty(LAYERS));
+		List<Integer> stale = new ArrayList<Integer>();
+		for (int i = 0; i < layerInputs.length; i++)
+			if (all || !layerInputs[i].equals(saved.getProperty(LAYER + i))) stale.add(i);
+
+		int[] layers = new int[stale.size()];
+		for (int i = 0; i < layers.length; i++) layers[i] = stale.get(i);
+		return layers;
+	}
+
+	/** @return the saved manifest, or null if there is none or it can't be read */
+	private Properties read()
+	{
+		if (!Files.exists(manifest)) return null;
+		Properties saved = new Properties();
+		try (Reader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+			saved.load(in);
+			return saved;
+		} catch (IOException | IllegalArgumentException e) { return null; }
+	}
+
+	/** Remove the manifest before the output is rewritten. */
+	public void invalidate() throws IOException { Files.deleteIfExists(manifest); }
+
+	/** Record the output as computed from the current inputs; call once it is completely written. */
+	public void save() throws IOException
+	{
+		Properties values = new Properties();
+		values.setProperty(ENGINE, ENGINE_VERSION);
+		values.setProperty(CONFIGURATION, configuration);
+		values.setProperty(LAYERS, String.valueOf(layerInputs.length));
+		for (int i = 0; i < layerInputs.length; i++) values.setProperty(LAYER + i, layerInputs[i]);
+		try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+			values.store(out, output.getFileName().toString());
+		}
+		Files.move(tempFile, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Hash of the names, sizes and modification times of some files. A missing file hashes differently from any that exists. */
+	public static String fingerprint(String... filenames)
+	{
+		StringBuilder s = new StringBuilder();
+		for (String filename : filenames)
+		{
+			File file = new File(filename);
+			s.append(file.getName()).append(' ').append(file.exists() ? file.length() : -1)
+					.append(' ').append(file.lastModified()).append('\n');
+		}
+		return hash(s.toString());
+	}
+
+	/** SHA-256 of a string, in hex. */
+	public static String hash(String text)
+	{
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
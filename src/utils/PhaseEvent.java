@@ -0,0 +1,47 @@
+package utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** Flight Recorder event for one phase of a tile's run, see {@link RunStatistics}. <br>
+ *  Record with {@code -XX:StartFlightRecording} and look for mpb.Phase events.
+ *  The event spans the phase; for phases interleaved day by day, such as copying
+ *  layers and updating cells, busyTime is the part of the span spent in the phase.
+ *
+ * @author michaelfrancenelson */
+@Name("mpb.Phase")
+@Label("Model Phase")
+@Category("MPB Overwintering")
+@Description("Time spent in one phase of a tile's run")
+public class PhaseEvent extends Event {
+
+	@Label("Phase")
+	public String phase;
+
+	@Label("Tile")
+	public int tile;
+
+	/** 0 for phases of the whole run. */
+	@Label("Year")
+	public int year;
+
+	@Label("Busy Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long busyTime;
+
+	@Label("Cell Days")
+	public long cellDays;
+
+	@Label("Bytes Read")
+	@DataAmount
+	public long bytesRead;
+
+	/* Not recorded. */
+	transient RunStatistics.Phase kind;
+	transient long startNanos;
+}
@@ -62,6 +62,9 @@ public class RegniereBentzMPBCalculator {
 	static final double THRESHOLD_LAMBDA_0 = 0.254;
 	/** Threshold C for State 2-3 transition  */
 	static final double THRESHOLD_LAMBDA_1 = 0.764;
+
+	/** Daily temperatures at or below this value are missing data. */
+	public static final double MISSING_DATA = -999;
 	
 	
 	/** Helper, convenience function */
@@ -83,16 +86,28 @@ public class RegniereBentzMPBCalculator {
 	public static double deltaColdHardeningState(double coldHardeningState, double gain, double loss) { return (1d - coldHardeningState) * gain - coldHardeningState * loss; }
 
 	/** Equation 3 */
-	public static double gain(double dailyPhloemTempRangeR,	double dailyPhloemTempMeanTau, double tempOptimumGainTG) { return dailyPhloemTempRangeR * MAX_GAIN_RATE_RHO_G * logistic(dailyPhloemTempMeanTau, tempOptimumGainTG, SPREAD_GAIN_SIGMA_G); }
+	public static double gain(double dailyPhloemTempRangeR,	double dailyPhloemTempMeanTau, double tempOptimumGainTG) { return gain(ModelParameters.DEFAULT, dailyPhloemTempRangeR, dailyPhloemTempMeanTau, tempOptimumGainTG); }
+
+	/** Equation 3, with the constants of a parameter set. */
+	public static double gain(ModelParameters params, double dailyPhloemTempRangeR, double dailyPhloemTempMeanTau, double tempOptimumGainTG) { return dailyPhloemTempRangeR * params.maxGainRateRhoG * logistic(dailyPhloemTempMeanTau, tempOptimumGainTG, params.spreadGainSigmaG); }
 
 	/** Equation 4 */
-	public static double loss(double dailyPhloemTempRangeR,	double dailyPhloemTempMeanTau, double tempOptimumLossTL) { return dailyPhloemTempRangeR * MAX_LOSS_RATE_RHO_L * logistic(dailyPhloemTempMeanTau, tempOptimumLossTL, SPREAD_LOSS_SIGMA_L);	}
+	public static double loss(double dailyPhloemTempRangeR,	double dailyPhloemTempMeanTau, double tempOptimumLossTL) { return loss(ModelParameters.DEFAULT, dailyPhloemTempRangeR, dailyPhloemTempMeanTau, tempOptimumLossTL); }
+
+	/** Equation 4, with the constants of a parameter set. */
+	public static double loss(ModelParameters params, double dailyPhloemTempRangeR, double dailyPhloemTempMeanTau, double tempOptimumLossTL) { return dailyPhloemTempRangeR * params.maxLossRateRhoL * logistic(dailyPhloemTempMeanTau, tempOptimumLossTL, params.spreadLossSigmaL); }
 
 	/** Equation 5 */
-	public static double supercoolingTempGain(double coldHardeningState) { return OPTIMAL_GAIN_TEMP_MU_G + OPTIMAL_GAIN_TEMP_SLOPE_KAPPA_G * coldHardeningState; }
+	public static double supercoolingTempGain(double coldHardeningState) { return supercoolingTempGain(ModelParameters.DEFAULT, coldHardeningState); }
+
+	/** Equation 5, with the constants of a parameter set. */
+	public static double supercoolingTempGain(ModelParameters params, double coldHardeningState) { return params.optimalGainTempMuG + params.optimalGainTempSlopeKappaG * coldHardeningState; }
 
 	/** Equation 6 */
-	public static double supercoolingTempLoss(double coldHardeningState) { return OPTIMAL_LOSS_TEMP_MU_L + OPTIMAL_LOSS_SLOPE_KAPPA_L * coldHardeningState; }
+	public static double supercoolingTempLoss(double coldHardeningState) { return supercoolingTempLoss(ModelParameters.DEFAULT, coldHardeningState); }
+
+	/** Equation 6, with the constants of a parameter set. */
+	public static double supercoolingTempLoss(ModelParameters params, double coldHardeningState) { return params.optimalLossTempMuL + params.optimalLossSlopeKappaL * coldHardeningState; }
 
 	/** Equation 7 */
 	public static double currentColdHardening(double coldHardening,	double gain, double loss, boolean gainOnly){
@@ -102,13 +117,16 @@ public class RegniereBentzMPBCalculator {
 	}
 
 	/** Equation 8 */
-	public static double medianLethalTemperature(double coldHardeningState)
+	public static double medianLethalTemperature(double coldHardeningState) { return medianLethalTemperature(ModelParameters.DEFAULT, coldHardeningState); }
+
+	/** Equation 8, with the constants of a parameter set. */
+	public static double medianLethalTemperature(ModelParameters params, double coldHardeningState)
 	{
-		double p1 = proportion1(coldHardeningState);
-		double p3 = proportion3(coldHardeningState);
+		double p1 = proportion1(params, coldHardeningState);
+		double p3 = proportion3(params, coldHardeningState);
 		double p2 = proportion2(p1, p3);
 
-		return MEAN_SCP_ALPHA_1 * p1 + MEAN_SCP_ALPHA_2 * p2 + MEAN_SCP_ALPHA_3 * p3;
+		return params.meanScpAlpha1 * p1 + params.meanScpAlpha2 * p2 + params.meanScpAlpha3 * p3;
 	}
 
 	/** Equation 9a: Proportion in summer state. 
@@ -116,8 +134,11 @@ public class RegniereBentzMPBCalculator {
 	 *  	The min function has no second term, it should be a 1
 	 *  	The denominator for p1 should be 0.5 - lambda0
 	 *  	The denominator for p3 should be lambda1 - 0.5  */
-	public static double proportion1(double coldHardeningState){
-		double term = (0.5 - coldHardeningState) / (0.5 - THRESHOLD_LAMBDA_0);
+	public static double proportion1(double coldHardeningState){ return proportion1(ModelParameters.DEFAULT, coldHardeningState); }
+
+	/** Equation 9a, with the constants of a parameter set. */
+	public static double proportion1(ModelParameters params, double coldHardeningState){
+		double term = (0.5 - coldHardeningState) / (0.5 - params.thresholdLambda0);
 		return Math.max(0, Math.min(1, term));
 	}
 
@@ -126,8 +147,11 @@ public class RegniereBentzMPBCalculator {
 	 * 		The min function has no second term, it should be a 1
 	 *  	The denominator for p1 should be 0.5 - lambda0
 	 *  	The denominator for p3 should be lambda1 - 0.5 */
-	public static double proportion3(double coldHardeningState){
-		double prop3 = (coldHardeningState - 0.5) / (THRESHOLD_LAMBDA_1 - 0.5);
+	public static double proportion3(double coldHardeningState){ return proportion3(ModelParameters.DEFAULT, coldHardeningState); }
+
+	/** Equation 9b, with the constants of a parameter set. */
+	public static double proportion3(ModelParameters params, double coldHardeningState){
+		double prop3 = (coldHardeningState - 0.5) / (params.thresholdLambda1 - 0.5);
 		return Math.max(0, Math.min(1, prop3));
 	}
 
@@ -152,38 +176,62 @@ public class RegniereBentzMPBCalculator {
 			double dailyMinimumTemperature,
 			double[] proportions)
 	{
-		double[] alpha = new double[] {MEAN_SCP_ALPHA_1, MEAN_SCP_ALPHA_2, MEAN_SCP_ALPHA_3};
-		double[] beta = new double[] {SPREAD_SCP_BETA_1, SPREAD_SCP_BETA_2, SPREAD_SCP_BETA_3};
-		
 		/* If there is missing data, the minimum temperature will be a super low number.
 		 * In that case, don't calculate survival for today, just return yesterday's value */
 		if(dailyMinimumTemperature < -300)
 			return previousProb;
 		else
 		{
-			if(alpha.length != 3 | beta.length != 3 | proportions.length != 3) throw new IllegalArgumentException("");
-			
-			double newProb = 0d;
-
-			for(int i = 0; i < 3; i++) newProb += proportions[i] / (1d + Math.exp(-(dailyMinimumTemperature - alpha[i]) / beta[i]));
-			return Math.min(previousProb, newProb);
+			if(proportions.length != 3) throw new IllegalArgumentException("");
+			return probSurvival(previousProb, dailyMinimumTemperature, proportions[0], proportions[1], proportions[2]);
 		}
 	}
 
+	/** Equation 10, with the three state proportions passed individually. */
+	public static double probSurvival(
+			double previousProb,
+			double dailyMinimumTemperature,
+			double p1, double p2, double p3)
+	{
+		return probSurvival(ModelParameters.DEFAULT, previousProb, dailyMinimumTemperature, p1, p2, p3);
+	}
+
+	/** Equation 10, with the three state proportions passed individually and the constants of a parameter set. */
+	public static double probSurvival(ModelParameters params,
+			double previousProb,
+			double dailyMinimumTemperature,
+			double p1, double p2, double p3)
+	{
+		if(dailyMinimumTemperature < -300)
+			return previousProb;
+
+		double newProb = 0d;
+		newProb += p1 / (1d + Math.exp(-(dailyMinimumTemperature - params.meanScpAlpha1) / params.spreadScpBeta1));
+		newProb += p2 / (1d + Math.exp(-(dailyMinimumTemperature - params.meanScpAlpha2) / params.spreadScpBeta2));
+		newProb += p3 / (1d + Math.exp(-(dailyMinimumTemperature - params.meanScpAlpha3) / params.spreadScpBeta3));
+		return Math.min(previousProb, newProb);
+	}
+
 	/** Equation 11: Average phloem maximum temperature (north/south sides) from
 	 * Bolstad, P. V., B. J. Bentz, and J. A. Logan. 1997. 
 	 * Modelling micro-habitat temperature for Dendroctonus ponderosae 
 	 * coleoptera: scolytidae). Ecological Modelling 94:287–297. */
-	public static double phloemTempTauMax(double tempMin, double tempMax)
+	public static double phloemTempTauMax(double tempMin, double tempMax) { return phloemTempTauMax(ModelParameters.DEFAULT, tempMin, tempMax); }
+
+	/** Equation 11, with the constants of a parameter set. */
+	public static double phloemTempTauMax(ModelParameters params, double tempMin, double tempMax)
 	{
-		return tempMax + DELTA_MAX * (tempMax - tempMin) / TEMPERATURE_CONST;
+		return tempMax + params.deltaMax * (tempMax - tempMin) / params.temperatureConst;
 	}
 
 	/** Equation 12: Average phloem maximum temperature (north/south sides) from
 	 * Bolstad, P. V., B. J. Bentz, and J. A. Logan. 1997. 
 	 * Modelling micro-habitat temperature for Dendroctonus ponderosae 
 	 * coleoptera: scolytidae). Ecological Modelling 94:287–297. */
-	public static double phloemTempTauMin(double tempMin) {	return tempMin + TAU_MIN_CONST; }
+	public static double phloemTempTauMin(double tempMin) {	return phloemTempTauMin(ModelParameters.DEFAULT, tempMin); }
+
+	/** Equation 12, with the constants of a parameter set. */
+	public static double phloemTempTauMin(ModelParameters params, double tempMin) { return tempMin + params.tauMinConst; }
 
 	/**  Update the beetle survival score given today's min and max temperature. <br> 
 	 *  If temperature data for the day is missing, today's update is skipped and 
@@ -207,11 +255,10 @@ public class RegniereBentzMPBCalculator {
 		 * state[3] = survival
 		 */
 		/* If there is missing data for today, skip the update. */
-		if(!(temps[0] <= -999 || temps[1] <= -999)){
+		if(!(temps[0] <= MISSING_DATA || temps[1] <= MISSING_DATA)){
 
 
-			boolean gainOnly = false;
-			if(today.getMonthValue() >= 8) {gainOnly = true;}
+			boolean gainOnly = gainOnly(today);
 
 			/* Calculate today's phloem temperatures: */
 			double phloemMaxTemp = RegniereBentzMPBCalculator.phloemTempTauMax(temps[0], temps[1]);
@@ -238,6 +285,174 @@ public class RegniereBentzMPBCalculator {
 		}
 		return state;
 	}
-	
-	
+
+	/** Cold hardening may only be gained, not lost, from August onwards. */
+	public static boolean gainOnly(LocalDate today) { return today.getMonthValue() >= 8; }
+
+	/** Batch version of {@link #updateState(double[], LocalDate, double[])} for a whole layer of cells. <br>
+	 *  Allocates nothing; the temperature and state arrays share the same cell index. <br>
+	 *  Cells whose adjusted min or max temperature is at or below missingValue are skipped. <br>
+	 *  Gives bit-identical results to updateState when missingValue is {@link #MISSING_DATA}.
+	 *
+	 * @param tempsMin today's minimum temperatures
+	 * @param tempsMax today's maximum temperatures
+	 * @param tempAdjust subtracted from every temperature before use
+	 * @param gainOnly see {@link #gainOnly(LocalDate)}
+	 * @param missingValue missing data sentinel
+	 * @param coldHardening state[0] of every cell, updated in place
+	 * @param gain state[1] of every cell, updated in place
+	 * @param loss state[2] of every cell, updated in place
+	 * @param survival state[3] of every cell, updated in place */
+	public static void updateStates(
+			double[] tempsMin, double[] tempsMax, double tempAdjust,
+			boolean gainOnly, double missingValue,
+			double[] coldHardening, double[] gain, double[] loss, double[] survival)
+	{
+		for (int cell = 0; cell < coldHardening.length; cell++)
+			updateCell(ModelParameters.DEFAULT, tempsMin[cell] - tempAdjust, tempsMax[cell] - tempAdjust, gainOnly, missingValue,
+					coldHardening, gain, loss, survival, cell);
+	}
+
+	/** As the double[] version of the batch updateStates(), reading the temperatures straight from float layers. */
+	public static void updateStates(
+			float[] tempsMin, float[] tempsMax, double tempAdjust,
+			boolean gainOnly, double missingValue,
+			double[] coldHardening, double[] gain, double[] loss, double[] survival)
+	{
+		for (int cell = 0; cell < coldHardening.length; cell++)
+			updateCell(ModelParameters.DEFAULT, (double) tempsMin[cell] - tempAdjust, (double) tempsMax[cell] - tempAdjust, gainOnly, missingValue,
+					coldHardening, gain, loss, survival, cell);
+	}
+
+	/** As the float[] batch updateStates(), for the compact states of a tile's active cells only. <br>
+	 *  State i belongs to the cell at grid offset offsets[i] of the temperature layers.
+	 *
+	 * @param offsets layer offset of each active cell, see {@link ActiveCells#getOffsets()} */
+	public static void updateStates(
+			float[] tempsMin, float[] tempsMax, int[] offsets, double tempAdjust,
+			boolean gainOnly, double missingValue,
+			double[] coldHardening, double[] gain, double[] loss, double[] survival)
+	{
+		for (int cell = 0; cell < offsets.length; cell++)
+		{
+			int offset = offsets[cell];
+			updateCell(ModelParameters.DEFAULT, (double) tempsMin[offset] - tempAdjust, (double) tempsMax[offset] - tempAdjust, gainOnly, missingValue,
+					coldHardening, gain, loss, survival, cell);
+		}
+	}
+
+	/** The body of updateState() for one cell of the state arrays, given its adjusted temperatures. <br>
+	 *  The one implementation of the daily update: every batch path runs it, with
+	 *  {@link ModelParameters#DEFAULT} unless it is running an ensemble. */
+	private static void updateCell(ModelParameters params,
+			double tempMin, double tempMax, boolean gainOnly, double missingValue,
+			double[] coldHardening, double[] gain, double[] loss, double[] survival, int cell)
+	{
+		if (tempMin <= missingValue || tempMax <= missingValue) return;
+
+		double phloemMaxTemp = phloemTempTauMax(params, tempMin, tempMax);
+		double phloemMinTemp = phloemTempTauMin(params, tempMin);
+		double range = phloemMaxTemp - phloemMinTemp;
+		double mean = 0.5 * (phloemMaxTemp + phloemMinTemp);
+
+		double c = coldHardening[cell];
+		double g = gain(params, range, mean, supercoolingTempGain(params, c));
+		double l = loss(params, range, mean, supercoolingTempLoss(params, c));
+		c = currentColdHardening(c, g, l, gainOnly);
+
+		double p1 = proportion1(params, c);
+		double p3 = proportion3(params, c);
+		survival[cell] = probSurvival(params, survival[cell], tempMin, p1, proportion2(p1, p3), p3);
+		coldHardening[cell] = c;
+		gain[cell] = g;
+		loss[cell] = l;
+	}
+
+	/** As the active cell batch updateStates(), but running a block of cells through every day before
+	 *  moving to the next block, from a {@link CellSeries}. <br>
+	 *  A block's states stay in L1 for the whole run and its temperatures are read in order, so each
+	 *  state goes through memory once rather than once a day. Gives bit-identical results to calling
+	 *  updateStates() for each day in turn.
+	 *
+	 * @param series the cells' temperatures, in the order of the state arrays
+	 * @param startDay index into the series of the first day to simulate
+	 * @param endDay index into the series of the day to stop before
+	 * @param tempAdjust subtracted from every temperature before use */
+	public static void updateSeries(CellSeries series, int startDay, int endDay, double tempAdjust, double missingValue,
+			double[] coldHardening, double[] gain, double[] loss, double[] survival)
+	{
+		float[] tempsMin = series.min, tempsMax = series.max;
+		for (int first = 0; first < series.nCells; first += CellSeries.BLOCK_CELLS)
+		{
+			int last = series.blockEnd(first);
+			int width = last - first;
+			for (int day = startDay; day < endDay; day++)
+			{
+				boolean gainOnly = series.gainOnly[day];
+				int i = first * series.nDays + day * width;
+				for (int cell = first; cell < last; cell++, i++)
+					updateCell(ModelParameters.DEFAULT, (double) tempsMin[i] - tempAdjust, (double) tempsMax[i] - tempAdjust, gainOnly, missingValue,
+							coldHardening, gain, loss, survival, cell);
+			}
+		}
+	}
+
+	/** As the active cell batch updateStates(), advancing an ensemble of model runs over the same layers. <br>
+	 *  Each member has its own parameter set and temperature adjustment, so one pass covers both
+	 *  parameter ensembles and warming scenarios. The states are member-innermost: member m of active
+	 *  cell i is at {@code i * members.length + m}, so each cell's temperatures are read once for the
+	 *  whole ensemble. A member with {@link ModelParameters#DEFAULT} values gives the same results as
+	 *  updateStates() with the same tempAdjust.
+	 *
+	 * @param offsets layer offset of each active cell, see {@link ActiveCells#getOffsets()}
+	 * @param tempAdjust subtracted from every temperature, one per member
+	 * @param members the parameter set of each member */
+	public static void updateMembers(
+			float[] tempsMin, float[] tempsMax, int[] offsets, double[] tempAdjust,
+			boolean gainOnly, double missingValue, ModelParameters[] members,
+			double[] coldHardening, double[] gain, double[] loss, double[] survival)
+	{
+		int nMembers = members.length;
+		for (int cell = 0; cell < offsets.length; cell++)
+		{
+			int offset = offsets[cell];
+			double cellMin = tempsMin[offset], cellMax = tempsMax[offset];
+			int state = cell * nMembers;
+			for (int m = 0; m < nMembers; m++, state++)
+				updateCell(members[m], cellMin - tempAdjust[m], cellMax - tempAdjust[m], gainOnly, missingValue,
+						coldHardening, gain, loss, survival, state);
+		}
+	}
+
+	/** Convenience wrapper for the batch updateStates(), using the arrays of a {@link CellStates} store. */
+	public static void updateStates(double[] tempsMin, double[] tempsMax, double tempAdjust,
+			boolean gainOnly, double missingValue, CellStates states)
+	{
+		updateStates(tempsMin, tempsMax, tempAdjust, gainOnly, missingValue,
+				states.coldHardening, states.gain, states.loss, states.survival);
+	}
+
+	/** Convenience wrapper for the batch updateStates(), using the arrays of a {@link CellStates} store. */
+	public static void updateStates(float[] tempsMin, float[] tempsMax, double tempAdjust,
+			boolean gainOnly, double missingValue, CellStates states)
+	{
+		updateStates(tempsMin, tempsMax, tempAdjust, gainOnly, missingValue,
+				states.coldHardening, states.gain, states.loss, states.survival);
+	}
+
+	/** Convenience wrapper for the active cell batch updateStates(), using the arrays of a {@link CellStates} store. */
+	public static void updateStates(float[] tempsMin, float[] tempsMax, ActiveCells cells, double tempAdjust,
+			boolean gainOnly, double missingValue, CellStates states)
+	{
+		updateStates(tempsMin, tempsMax, cells.getOffsets(), tempAdjust, gainOnly, missingValue,
+				states.coldHardening, states.gain, states.loss, states.survival);
+	}
+
+	/** Convenience wrapper for updateSeries(), using the arrays of a {@link CellStates} store. */
+	public static void updateSeries(CellSeries series, int startDay, int endDay, double tempAdjust,
+			double missingValue, CellStates states)
+	{
+		updateSeries(series, startDay, endDay, tempAdjust, missingValue,
+				states.coldHardening, states.gain, states.loss, states.survival);
+	}
 }
@@ -0,0 +1,137 @@
+package utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Where a tile's run spends its time, per year and in total. <br>
+ *  Each phase is timed with {@link #begin} and {@link #end}, which also commit a
+ *  {@link PhaseEvent} for Flight Recorder. At the end of the run {@link #writeSummary}
+ *  saves the totals, cell-days per second and bytes read as JSON. Safe to share
+ *  between the threads of one run.
+ *
+ * @author michaelfrancenelson */
+public class RunStatistics {
+
+	public enum Phase {
+		/** Opening and decoding a year's NetCDF files. */
+		READ,
+		/** Copying each day's layers out of the temperature cube, reading them first when streaming. */
+		LAYERS,
+		/** The cell update loop. */
+		UPDATE,
+		/** Setting up the output and building the mask. */
+		INITIALIZE,
+		/** Writing output layers, files and checkpoints. */
+		WRITE
+	}
+
+	private static final int CELL_DAYS = Phase.values().length, BYTES = CELL_DAYS + 1;
+
+	private final int tileID;
+	private final long startNanos = System.nanoTime();
+
+	/* Per year: nanoseconds in each phase, then cell-days and bytes read. Year 0 is the whole run. */
+	private final Map<Integer, long[]> years = new TreeMap<Integer, long[]>();
+
+	public RunStatistics(int tileID) { this.tileID = tileID; }
+
+	/** Start timing a phase; pass the result to end().
+	 *  @param year 0 for phases of the whole run */
+	public PhaseEvent begin(Phase phase, int year)
+	{
+		PhaseEvent event = new PhaseEvent();
+		event.kind = phase;
+		event.phase = phase.name();
+		event.tile = tileID;
+		event.year = year;
+		event.begin();
+		event.startNanos = System.nanoTime();
+		return event;
+	}
+
+	/** Finish timing a phase that was busy for its whole span. */
+	public void end(PhaseEvent event, long cellDays, long bytesRead)
+	{
+		end(event, System.nanoTime() - event.startNanos, cellDays, bytesRead);
+	}
+
+	/** Finish timing a phase that was only busy for busyNanos of its span. */
+	public void end(PhaseEvent event, long busyNanos, long cellDays, long bytesRead)
+	{
+		event.end();
+		event.busyTime = busyNanos;
+		event.cellDays = cellDays;
+		event.bytesRead = bytesRead;
+		event.commit();
+		synchronized (this)
+		{
+			long[] year = years.get(event.year);
+			if (year == null) years.put(event.year, year = new long[BYTES + 1]);
+			year[event.kind.ordinal()] += busyNanos;
+			year[CELL_DAYS] += cellDays;
+			year[BYTES] += bytesRead;
+		}
+	}
+
+	public synchronized long[] totals()
+	{
+		long[] totals = new long[BYTES + 1];
+		for (long[] year : years.values())
+			for (int i = 0; i < totals.length; i++) totals[i] += year[i];
+		return totals;
+	}
+
+	/** Save the run's totals and each year's phases as JSON. */
+	public synchronized void writeSummary(String filename) throws IOException
+	{
+		long[] totals = totals();
+		double wall = (System.nanoTime() - startNanos) * 1e-9;
+		double update = totals[Phase.UPDATE.ordinal()] * 1e-9;
+		double read = totals[Phase.READ.ordinal()] * 1e-9;
+
+		try (PrintWriter out = new PrintWriter(filename, "UTF-8")) {
+			out.println("{");
+			out.println("  \"tile\": " + tileID + ",");
+			out.println(String.format(Locale.ROOT, "  \"wall_s\": %.3f,", wall));
+			out.println("  \"totals\": " + json(totals) + ",");
+			out.println(String.format(Locale.ROOT, "  \"cell_days_per_s\": %.1f,", wall > 0 ? totals[CELL_DAYS] / wall : 0));
+			out.println(String.format(Locale.ROOT, "  \"cell_days_per_update_s\": %.1f,", update > 0 ? totals[CELL_DAYS] / update : 0));
+			out.println(String.format(Locale.ROOT, "  \"read_mb_per_s\": %.1f,", read > 0 ? totals[BYTES] / read / 1e6 : 0));
+			out.println("  \"years\": [");
+			int n = 0;
+			for (Map.Entry<Integer, long[]> year : years.entrySet())
+			{
+				if (year.getKey() == 0) continue;
+				if (n++ > 0) out.println(",");
+				out.print("    {\"year\": " + year.getKey() + ", " + json(year.getValue()).substring(1));
+			}
+			out.println();
+			out.println("  ]");
+			out.println("}");
+		}
+	}
+
+	private static String json(long[] values)
+	{
+		StringBuilder s = new StringBuilder("{");
+		for (Phase phase : Phase.values())
+			s.append(String.format(Locale.ROOT, "\"%s_s\": %.4f, ", phase.name().toLowerCase(Locale.ROOT), values[phase.ordinal()] * 1e-9));
+		s.append("\"cell_days\": ").append(values[CELL_DAYS]).append(", \"bytes_read\": ").append(values[BYTES]).append("}");
+		return s.toString();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		long[] totals = totals();
+		StringBuilder s = new StringBuilder();
+		for (Phase phase : Phase.values())
+			s.append(String.format(Locale.ROOT, "%s %.1f s, ", phase.name().toLowerCase(Locale.ROOT), totals[phase.ordinal()] * 1e-9));
+		double update = totals[Phase.UPDATE.ordinal()] * 1e-9;
+		s.append(String.format(Locale.ROOT, "%.3g cell-days/s updating", update > 0 ? totals[CELL_DAYS] / update : 0));
+		return s.toString();
+	}
+}
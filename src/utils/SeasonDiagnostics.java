@@ -0,0 +1,140 @@
+package utils;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/** Per-cell summaries of a winter, accumulated day by day alongside the cells' states. <br>
+ *  Only a few values per cell are kept, so a run can report more than survival without saving
+ *  the daily states. The winter is the same as survival's: everything from one reset of the cells
+ *  to the next score. Call {@link #accept} after each day's update and {@link #score} when the
+ *  cells are scored and reset.
+ *
+ * @author michaelfrancenelson */
+public class SeasonDiagnostics {
+
+	/** Day of the largest one-day fall in survival, in days after January 1 of the year scored, negative in the fall. */
+	public static final String DROP_DAY = "survival_drop_day";
+	/** Lowest median lethal temperature, see {@link RegniereBentzMPBCalculator#medianLethalTemperature}. */
+	public static final String MIN_LT50 = "min_lt50";
+	/** Highest cold hardening state. */
+	public static final String PEAK_COLD_HARDENING = "peak_cold_hardening";
+	/** Number of days whose minimum temperature was below that day's LT50. */
+	public static final String DAYS_BELOW_LT50 = "days_below_lt50";
+
+	/** Names of the output variables, in the order of {@link #getScored()}. */
+	public static final String[] VARIABLES = { DROP_DAY, MIN_LT50, PEAK_COLD_HARDENING, DAYS_BELOW_LT50 };
+	/** Units of the output variables. */
+	public static final String[] UNITS = { "days", "degrees C", "1", "days" };
+
+	private final ActiveCells cells;
+
+	/* Survival at the end of the previous day, to find each day's fall. */
+	private final double[] lastSurvival;
+	private final double[] largestDrop;
+	/* As epoch days, so the winter can cross a new year. */
+	private final long[] dropDay;
+	private final double[] minLt50;
+	private final double[] peakColdHardening;
+	private final int[] daysBelow;
+
+	private double[][][] scored;
+
+	public SeasonDiagnostics(ActiveCells cells)
+	{
+		this.cells = cells;
+		int n = cells.size();
+		lastSurvival = new double[n];
+		largestDrop = new double[n];
+		dropDay = new long[n];
+		minLt50 = new double[n];
+		peakColdHardening = new double[n];
+		daysBelow = new int[n];
+		reset();
+	}
+
+	/** Start a new winter, for cells that have just been reset. */
+	public void reset()
+	{
+		Arrays.fill(lastSurvival, 1d);
+		Arrays.fill(largestDrop, 0d);
+		Arrays.fill(minLt50, Double.POSITIVE_INFINITY);
+		Arrays.fill(peakColdHardening, Double.NEGATIVE_INFINITY);
+		Arrays.fill(daysBelow, 0);
+	}
+
+	/**
+	 * Add a day whose update has just been applied to the states. <br>
+	 * Cells skipped by the update, because their temperatures are missing, are skipped here too.
+	 *
+	 * @param tempsMin the day's flat layer of minimum temperatures, as passed to the update
+	 * @param tempsMax the day's flat layer of maximum temperatures
+	 * @param tempAdjust subtracted from every temperature, as in the update
+	 */
+	public void accept(LocalDate today, float[] tempsMin, float[] tempsMax, double tempAdjust, double missingValue, CellStates states)
+	{
+		int[] offsets = cells.getOffsets();
+		long day = today.toEpochDay();
+		for (int cell = 0; cell < offsets.length; cell++)
+		{
+			double tempMin = (double) tempsMin[offsets[cell]] - tempAdjust;
+			double tempMax = (double) tempsMax[offsets[cell]] - tempAdjust;
+			if (tempMin <= missingValue || tempMax <= missingValue) continue;
+
+			double survival = states.survival[cell];
+			double drop = lastSurvival[cell] - survival;
+			if (drop > largestDrop[cell])
+			{
+				largestDrop[cell] = drop;
+				dropDay[cell] = day;
+			}
+			lastSurvival[cell] = survival;
+
+			double c = states.coldHardening[cell];
+			double lt50 = RegniereBentzMPBCalculator.medianLethalTemperature(c);
+			if (lt50 < minLt50[cell]) minLt50[cell] = lt50;
+			if (c > peakColdHardening[cell]) peakColdHardening[cell] = c;
+			if (tempMin < lt50) daysBelow[cell]++;
+		}
+	}
+
+	/**
+	 * Keep the winter's diagnostics as [col][row] grids, then reset for the next winter. <br>
+	 * Cells whose survival never fell have no drop day, and cells never updated have no
+	 * diagnostics; both, and masked cells, are NaN.
+	 *
+	 * @param year the year the cells are scored in
+	 */
+	public void score(int year)
+	{
+		long january1 = LocalDate.of(year, 1, 1).toEpochDay();
+		int n = cells.size();
+		double[][] values = new double[VARIABLES.length][n];
+		for (int cell = 0; cell < n; cell++)
+		{
+			boolean updated = minLt50[cell] != Double.POSITIVE_INFINITY;
+			values[0][cell] = (largestDrop[cell] > 0) ? dropDay[cell] - january1 : Double.NaN;
+			values[1][cell] = updated ? minLt50[cell] : Double.NaN;
+			values[2][cell] = updated ? peakColdHardening[cell] : Double.NaN;
+			values[3][cell] = updated ? daysBelow[cell] : Double.NaN;
+		}
+		scored = new double[VARIABLES.length][][];
+		for (int i = 0; i < VARIABLES.length; i++)
+			scored[i] = cells.toGrid(values[i], new double[cells.getNcols()][cells.getNrows()]);
+		reset();
+	}
+
+	/** The last winter scored, one [col][row] grid per variable, or null before the first. */
+	public double[][][] getScored() { return scored; }
+
+	/** Name each of the variables as a layer variable of an output; call before initializing it. */
+	public static void addVariables(DataCubeDaymet output)
+	{
+		for (int i = 0; i < VARIABLES.length; i++) output.addLayerVariable(VARIABLES[i], UNITS[i]);
+	}
+
+	/** Add the last winter scored to an output set up by addVariables(). */
+	public void addLayers(DataCubeDaymet output, int layer)
+	{
+		for (int i = 0; i < VARIABLES.length; i++) output.addVariableLayer(VARIABLES[i], layer, scored[i]);
+	}
+}
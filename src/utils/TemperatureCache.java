@@ -0,0 +1,180 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+import ucar.ma2.Array;
+
+/** Decoded years of a tile's temperatures, kept so that a year read by one run or product
+ *  is not decoded again by the next. <br>
+ *  Entries are keyed by tile, year and variable and evicted least recently used first once
+ *  their total size passes the capacity in bytes. A year is pinned from {@link #acquire} until
+ *  {@link #release} and is never evicted while pinned, so the cache may briefly hold more than
+ *  its capacity when every entry is in use. <br>
+ *  Safe to share between threads; a year requested by several threads at once is decoded once.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCache {
+
+	/** Reads one variable of one tile-year from disk. */
+	public interface Decoder {
+		public Array decode() throws IOException;
+	}
+
+	private static final class Key {
+		final int tile, year;
+		final String variable;
+
+		Key(int tile, int year, String variable)
+		{
+			this.tile = tile;
+			this.year = year;
+			this.variable = variable;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return tile == k.tile && year == k.year && variable.equals(k.variable);
+		}
+
+		@Override
+		public int hashCode() { return Objects.hash(tile, year, variable); }
+
+		@Override
+		public String toString() { return tile + "_" + year + "_" + variable; }
+	}
+
+	private static final class Entry {
+		/* Null while being decoded. */
+		Array values;
+		long bytes;
+		int pins;
+	}
+
+	private final long capacity;
+
+	/* In access order, least recently used first. */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long bytes;
+	private long hits, misses, evictions;
+
+	/** @param capacity bytes of decoded temperatures to keep */
+	public TemperatureCache(long capacity) { this.capacity = capacity; }
+
+	/** A quarter of the heap, enough to hold a few years of a tile beside a run's own memory. */
+	public static TemperatureCache ofHeapFraction()
+	{
+		return new TemperatureCache(Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Get a decoded variable, decoding it on a miss, and pin it until release() is called. <br>
+	 * The array is shared and must not be modified.
+	 *
+	 * @param decoder reads the variable if it isn't cached
+	 * @throws IOException if the decoder fails; nothing is left pinned or cached
+	 */
+	public Array acquire(int tile, int year, String variable, Decoder decoder) throws IOException
+	{
+		Key key = new Key(tile, year, variable);
+		Entry entry;
+		synchronized (this)
+		{
+			while ((entry = entries.get(key)) != null)
+			{
+				entry.pins++;
+				while (entry.values == null && entries.get(key) == entry)
+				{
+					try { wait(); }
+					catch (InterruptedException e) {
+						entry.pins--;
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted waiting for " + key);
+					}
+				}
+				if (entry.values != null)
+				{
+					hits++;
+					return entry.values;
+				}
+				/* The other thread's decode failed and its entry is gone. Look again: a third
+				 * thread may already be decoding the year, otherwise decode it here. */
+				entry.pins--;
+			}
+			misses++;
+			entry = new Entry();
+			entry.pins = 1;
+			entries.put(key, entry);
+		}
+
+		Array values;
+		try { values = decoder.decode(); }
+		catch (IOException | RuntimeException | Error e) {
+			synchronized (this)
+			{
+				entries.remove(key);
+				notifyAll();
+			}
+			throw e;
+		}
+
+		synchronized (this)
+		{
+			entry.values = values;
+			entry.bytes = values.getSizeBytes();
+			bytes += entry.bytes;
+			evict();
+			notifyAll();
+		}
+		return values;
+	}
+
+	/** Unpin a variable returned by acquire(); it stays cached until evicted. */
+	public synchronized void release(int tile, int year, String variable)
+	{
+		Key key = new Key(tile, year, variable);
+		Entry entry = entries.get(key);
+		if (entry == null) throw new IllegalStateException(key + " is not cached");
+		if (entry.pins <= 0) throw new IllegalStateException(key + " is not pinned");
+		entry.pins--;
+		evict();
+	}
+
+	/** Drop unpinned entries, least recently used first, until the cache fits its capacity. */
+	private void evict()
+	{
+		Iterator<Entry> it = entries.values().iterator();
+		while (bytes > capacity && it.hasNext())
+		{
+			Entry entry = it.next();
+			if (entry.pins > 0 || entry.values == null) continue;
+			it.remove();
+			bytes -= entry.bytes;
+			evictions++;
+		}
+	}
+
+	public synchronized long getHits() { return hits; }
+
+	public synchronized long getMisses() { return misses; }
+
+	public synchronized long getEvictions() { return evictions; }
+
+	/** Bytes of decoded temperatures held. */
+	public synchronized long getBytes() { return bytes; }
+
+	public long getCapacity() { return capacity; }
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("cache %d hits, %d misses, %d evictions, %.1f of %.1f MB",
+				hits, misses, evictions, bytes / 1e6, capacity / 1e6);
+	}
+}
@@ -1,20 +1,66 @@
 package utils;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.time.LocalDate;
 
-public interface TemperatureCube {
+/** A year of daily minimum and maximum temperatures over a grid of cells. <br>
+ *  The flat layers are indexed by {@code col * getNrows() + row}.  */
+public interface TemperatureCube extends Closeable {
 
-	/** Get the layer of maximum temperatures for a date
-	 * 
+	/** Copy the layer of maximum temperatures for a date into a buffer, without allocating.
+	 *
+	 * @param date Query date
+	 * @param dest buffer of at least getNcols() * getNrows() values */
+	public void getMaxOnDate(LocalDate date, float[] dest);
+	/** Copy the layer of minimum temperatures for a date into a buffer, without allocating.
+	 *
+	 * @param date Query date
+	 * @param dest buffer of at least getNcols() * getNrows() values */
+	public void getMinOnDate(LocalDate date, float[] dest);
+
+	/** Read-only view of the layer of maximum temperatures for a date, without copying. <br>
+	 *  Only valid until the cube is closed; a cube that streams its days may reuse the layer
+	 *  sooner, see its own comment.
+	 *
+	 * @param date Query date
+	 * @return getNcols() * getNrows() temperatures, positioned at 0 */
+	public FloatBuffer getMaxLayer(LocalDate date);
+	/** Read-only view of the layer of minimum temperatures for a date, without copying. <br>
+	 *  Only valid until the cube is closed; a cube that streams its days may reuse the layer
+	 *  sooner, see its own comment.
+	 *
+	 * @param date Query date
+	 * @return getNcols() * getNrows() temperatures, positioned at 0 */
+	public FloatBuffer getMinLayer(LocalDate date);
+
+	/** Get the layer of maximum temperatures for a date. <br>
+	 *  Slow path, allocates a new array on every call.
+	 *
 	 * @param date Query date
 	 * @return 2D array of temperatures */
-	public double[][] getMaxOnDate(LocalDate date);
-	/** Get the layer of minimum temperatures for a date
-	 * 
+	public default double[][] getMaxOnDate(LocalDate date) { return toDouble(getMaxLayer(date)); }
+	/** Get the layer of minimum temperatures for a date. <br>
+	 *  Slow path, allocates a new array on every call.
+	 *
 	 * @param date Query date
 	 * @return 2D array of temperatures */
-	public double[][] getMinOnDate(LocalDate date);
-	
+	public default double[][] getMinOnDate(LocalDate date) { return toDouble(getMinLayer(date)); }
+
 	public int getNrows();
 	public int getNcols();
+
+	/** Release any files held open. Cubes held entirely in memory have nothing to release. */
+	@Override
+	public default void close() throws IOException {}
+
+	default double[][] toDouble(FloatBuffer layer)
+	{
+		double[][] out = new double[getNcols()][getNrows()];
+		int i = 0;
+		for (int col = 0; col < out.length; col++) for (int row = 0; row < out[0].length; row++)
+			out[col][row] = (double) layer.get(i++);
+		return out;
+	}
 }
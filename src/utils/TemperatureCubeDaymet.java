@@ -1,18 +1,29 @@
 package utils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 
+import ucar.ma2.Array;
 import ucar.nc2.NetcdfFile;
 
 public class TemperatureCubeDaymet implements TemperatureCube{
 
 	private LocalDate startDate;
 
-	private float[][][] temperaturesMin_f;
-	private float[][][] temperaturesMax_f;
+	/* Whole year, one layer after another, each layer indexed col * nRows + row. */
+	private float[] temperaturesMin_f;
+	private float[] temperaturesMax_f;
 
+	private int nCols, nRows;
+
+	/* Set when the temperatures are pinned in a cache until the cube is closed. */
+	private TemperatureCache cache;
+	private int tileID;
+
+	/** @throws UncheckedIOException if either file can't be read */
 	public TemperatureCubeDaymet(String min_filename, String max_filename, int year)
 	{
 		NetcdfFile ncfile_min = null;
@@ -21,46 +32,102 @@ public class TemperatureCubeDaymet implements TemperatureCube{
 		try {
 			ncfile_min = NetcdfFile.open(min_filename);
 			ncfile_max = NetcdfFile.open(max_filename);
-		} catch(IOException ie) { ie.printStackTrace(); }		        
+			int[] shape = ncfile_min.findVariable("tmin").getShape();
+			nCols = shape[1]; nRows = shape[2];
+			temperaturesMin_f = (float[]) ncfile_min.findVariable("tmin").read().get1DJavaArray(float.class);
+			temperaturesMax_f = (float[]) ncfile_max.findVariable("tmax").read().get1DJavaArray(float.class);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read " + min_filename + " or " + max_filename, e);
+		} finally {
+			try {
+				if (ncfile_min != null) ncfile_min.close();
+				if (ncfile_max != null) ncfile_max.close();
+			} catch (IOException e) { e.printStackTrace(); }
+		}
 
-		try {
-			temperaturesMin_f = (float[][][]) ncfile_min.findVariable("tmin").read().copyToNDJavaArray();
-			temperaturesMax_f = (float[][][]) ncfile_max.findVariable("tmax").read().copyToNDJavaArray();
-		} catch (IOException e) { e.printStackTrace(); }
+		startDate = LocalDate.of(year, 1, 1);
+	}
 
+	/**
+	 * Read through a cache of decoded years, so that a year already decoded by another run
+	 * or product is not read again. The year stays pinned in the cache until the cube is closed.
+	 *
+	 * @throws UncheckedIOException if either file can't be read
+	 */
+	public TemperatureCubeDaymet(String min_filename, String max_filename, int tileID, int year, TemperatureCache cache)
+	{
+		Array min, max;
+		try {
+			min = cache.acquire(tileID, year, "tmin", () -> readVariable(min_filename, "tmin"));
+			try { max = cache.acquire(tileID, year, "tmax", () -> readVariable(max_filename, "tmax")); }
+			catch (IOException | RuntimeException e) {
+				cache.release(tileID, year, "tmin");
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read " + min_filename + " or " + max_filename, e);
+		}
+		int[] shape = min.getShape();
+		nCols = shape[1]; nRows = shape[2];
+		temperaturesMin_f = (float[]) min.getStorage();
+		temperaturesMax_f = (float[]) max.getStorage();
+		this.cache = cache;
+		this.tileID = tileID;
 		startDate = LocalDate.of(year, 1, 1);
-		
+	}
+
+	private static Array readVariable(String filename, String variable) throws IOException
+	{
+		NetcdfFile ncfile = NetcdfFile.open(filename);
 		try {
-			ncfile_min.close();
-			ncfile_max.close();
-		} catch (IOException e) { e.printStackTrace(); }
+			Array values = ncfile.findVariable(variable).read();
+			/* Float storage, in order, so it can be shared as the cube's layers. */
+			if (values.getElementType() != float.class || !(values.getStorage() instanceof float[]))
+				values = Array.factory(float.class, values.getShape(), values.get1DJavaArray(float.class));
+			return values;
+		} finally { ncfile.close(); }
 	}
 
+	/** Unpin the year if it came from a cache. */
 	@Override
-	public double[][] getMaxOnDate(LocalDate date){
-		int dayIndex = (int)ChronoUnit.DAYS.between(startDate, date);
-		return floatToDouble(temperaturesMax_f[dayIndex]);
+	public void close()
+	{
+		if (cache == null) return;
+		int year = startDate.getYear();
+		cache.release(tileID, year, "tmin");
+		cache.release(tileID, year, "tmax");
+		cache = null;
 	}
-	
+
 	@Override
-	public double[][] getMinOnDate(LocalDate date){
-		int dayIndex = (int)ChronoUnit.DAYS.between(startDate, date);
-		return floatToDouble(temperaturesMin_f[dayIndex]);
+	public void getMaxOnDate(LocalDate date, float[] dest){
+		System.arraycopy(temperaturesMax_f, layerOffset(date), dest, 0, nCols * nRows);
+	}
+
+	@Override
+	public void getMinOnDate(LocalDate date, float[] dest){
+		System.arraycopy(temperaturesMin_f, layerOffset(date), dest, 0, nCols * nRows);
+	}
+
+	@Override
+	public FloatBuffer getMaxLayer(LocalDate date){
+		return FloatBuffer.wrap(temperaturesMax_f, layerOffset(date), nCols * nRows).slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public FloatBuffer getMinLayer(LocalDate date){
+		return FloatBuffer.wrap(temperaturesMin_f, layerOffset(date), nCols * nRows).slice().asReadOnlyBuffer();
 	}
-	
 
 	@Override
-	public int getNcols() { return temperaturesMin_f[0].length; }
-	
+	public int getNcols() { return nCols; }
+
 	@Override
-	public int getNrows() { return temperaturesMin_f[0][0].length; }
+	public int getNrows() { return nRows; }
 
-	private double[][] floatToDouble(float[][] in)
+	private int layerOffset(LocalDate date)
 	{
-		double[][] out = new double[in.length][in[0].length];
-		for (int col = 0; col < in.length; col++) for (int row = 0; row < in[0].length; row++)
-			out[col][row] = (double) in[col][row];
-		return out;
+		int dayIndex = (int)ChronoUnit.DAYS.between(startDate, date);
+		return dayIndex * nCols * nRows;
 	}
-	
 }
@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/** A {@link TemperatureCube} that keeps the Daymet files open and reads a few days
+ *  at a time with sectioned reads, instead of holding the whole year in memory. <br>
+ *  Reading the days in order touches each day once; a day outside the block in
+ *  memory causes a new block to be read starting at that day, into the same buffers. <br>
+ *  Must be closed when no longer needed.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCubeDaymetStream implements TemperatureCube {
+
+	/** Number of days read at once, unless set in the constructor. */
+	public static final int DEFAULT_BLOCK_DAYS = 8;
+
+	private final LocalDate startDate;
+	private final NetcdfFile ncfile_min, ncfile_max;
+	private final Variable tmin, tmax;
+	private final int nDays, nCols, nRows, blockDays;
+
+	/* Both variables are read in the same blocks of days, into buffers that hold a full block.
+	 * The last block of the year may be shorter; blockLength is the number of days held. */
+	private int blockStart = -1, blockLength;
+	private final float[] minBlock, maxBlock;
+	private final Array minBlockArray, maxBlockArray;
+
+	public TemperatureCubeDaymetStream(String min_filename, String max_filename, int year)
+	{
+		this(min_filename, max_filename, year, DEFAULT_BLOCK_DAYS);
+	}
+
+	/** @throws UncheckedIOException if either file can't be opened */
+	public TemperatureCubeDaymetStream(String min_filename, String max_filename, int year, int blockDays)
+	{
+		NetcdfFile min = null;
+		try {
+			min = NetcdfFile.open(min_filename);
+			ncfile_max = NetcdfFile.open(max_filename);
+		} catch (IOException e) {
+			try { if (min != null) min.close(); } catch (IOException e2) { e2.printStackTrace(); }
+			throw new UncheckedIOException("Could not open " + min_filename + " or " + max_filename, e);
+		}
+		ncfile_min = min;
+		tmin = ncfile_min.findVariable("tmin");
+		tmax = ncfile_max.findVariable("tmax");
+
+		int[] shape = tmin.getShape();
+		nDays = shape[0]; nCols = shape[1]; nRows = shape[2];
+		this.blockDays = Math.max(1, Math.min(nDays, blockDays));
+		startDate = LocalDate.of(year, 1, 1);
+
+		int[] blockShape = new int[] {this.blockDays * nCols * nRows};
+		minBlock = new float[blockShape[0]];
+		maxBlock = new float[blockShape[0]];
+		minBlockArray = Array.factory(DataType.FLOAT, blockShape, minBlock);
+		maxBlockArray = Array.factory(DataType.FLOAT, blockShape, maxBlock);
+	}
+
+	@Override
+	public void getMaxOnDate(LocalDate date, float[] dest){
+		int dayIndex = dayIndex(date);
+		System.arraycopy(block(dayIndex, false), layerOffset(dayIndex), dest, 0, nCols * nRows);
+	}
+
+	@Override
+	public void getMinOnDate(LocalDate date, float[] dest){
+		int dayIndex = dayIndex(date);
+		System.arraycopy(block(dayIndex, true), layerOffset(dayIndex), dest, 0, nCols * nRows);
+	}
+
+	/** Only valid until the next block is read. */
+	@Override
+	public FloatBuffer getMaxLayer(LocalDate date){
+		int dayIndex = dayIndex(date);
+		return FloatBuffer.wrap(block(dayIndex, false), layerOffset(dayIndex), nCols * nRows).slice().asReadOnlyBuffer();
+	}
+
+	/** Only valid until the next block is read. */
+	@Override
+	public FloatBuffer getMinLayer(LocalDate date){
+		int dayIndex = dayIndex(date);
+		return FloatBuffer.wrap(block(dayIndex, true), layerOffset(dayIndex), nCols * nRows).slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public int getNcols() { return nCols; }
+
+	@Override
+	public int getNrows() { return nRows; }
+
+	@Override
+	public void close() throws IOException
+	{
+		try { ncfile_min.close(); }
+		finally { ncfile_max.close(); }
+	}
+
+	/** @return the block of days holding dayIndex, reading it first if needed. */
+	private float[] block(int dayIndex, boolean min)
+	{
+		if (dayIndex < 0 || dayIndex >= nDays)
+			throw new IndexOutOfBoundsException("Day " + dayIndex + " is outside the " + nDays + " days of " + startDate.getYear());
+		if (dayIndex < blockStart || dayIndex >= blockStart + blockLength)
+		{
+			int length = Math.min(blockDays, nDays - dayIndex);
+			int[] origin = new int[] {dayIndex, 0, 0};
+			int[] shape = new int[] {length, nCols, nRows};
+			int size = length * nCols * nRows;
+			/* The buffers no longer hold the old block, even if the read fails. */
+			blockStart = -1;
+			try {
+				Array.arraycopy(tmin.read(origin, shape), 0, minBlockArray, 0, size);
+				Array.arraycopy(tmax.read(origin, shape), 0, maxBlockArray, 0, size);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not read days " + dayIndex + " to " + (dayIndex + length - 1) + " of " + startDate.getYear(), e);
+			} catch (InvalidRangeException e) {
+				throw new IllegalStateException(e);
+			}
+			blockStart = dayIndex;
+			blockLength = length;
+		}
+		return min ? minBlock : maxBlock;
+	}
+
+	private int dayIndex(LocalDate date) { return (int)ChronoUnit.DAYS.between(startDate, date); }
+
+	/** Offset of a day's layer within the block holding it. */
+	private int layerOffset(int dayIndex) { return (dayIndex - blockStart) * nCols * nRows; }
+}
@@ -0,0 +1,9 @@
+package utils;
+
+import java.io.IOException;
+
+/** Makes the {@link TemperatureCube} for one year of a tile. */
+public interface TemperatureCubeLoader {
+
+	public TemperatureCube load(int year) throws IOException;
+}
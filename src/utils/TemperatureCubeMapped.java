@@ -0,0 +1,174 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/** A {@link TemperatureCube} memory-mapped from a year converted to a flat binary file. <br>
+ *  Decoding NetCDF dominates reading a year, and the same files are read again by every product
+ *  and rerun, so each tile-year can be converted once with {@link #convert}. The file is a header
+ *  followed by every day's tmin layer, then every day's tmax layer, as little-endian floats in the
+ *  same {@code col * nRow + row} order as the other cubes. <br>
+ *  Layers are served straight from the page cache without copying, and concurrent runs mapping
+ *  the same file share its memory. A mapping is released by the garbage collector once neither
+ *  the cube nor any layer from it is reachable.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCubeMapped implements TemperatureCube {
+
+	private static final int MAGIC = 0x4d504254;
+	private static final int VERSION = 1;
+	/* Magic, version, year, days, columns, rows and two unused ints, so the layers are aligned. */
+	private static final int HEADER_BYTES = 8 * 4;
+
+	private final LocalDate startDate;
+	private final int nDays, nCols, nRows;
+	private FloatBuffer min, max;
+
+	/** @throws IOException if the file can't be mapped or is not a converted year */
+	public TemperatureCubeMapped(String filename) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0) throw new IOException(filename + " ends in its header");
+			header.flip();
+			if (header.getInt() != MAGIC) throw new IOException(filename + " is not a converted temperature year");
+			int version = header.getInt();
+			if (version != VERSION) throw new IOException(filename + " is version " + version + ", expected " + VERSION);
+			int year = header.getInt();
+			nDays = header.getInt();
+			nCols = header.getInt();
+			nRows = header.getInt();
+
+			long layerBytes = (long) nDays * nCols * nRows * 4;
+			if (channel.size() != HEADER_BYTES + 2 * layerBytes) throw new IOException(filename + " is truncated");
+			if (layerBytes > Integer.MAX_VALUE) throw new IOException(filename + " holds more than 2 GB per variable");
+
+			/* The mappings stay valid after the channel is closed. */
+			min = map(channel, HEADER_BYTES, layerBytes);
+			max = map(channel, HEADER_BYTES + layerBytes, layerBytes);
+			startDate = LocalDate.of(year, 1, 1);
+		}
+	}
+
+	private static FloatBuffer map(FileChannel channel, long position, long bytes) throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+
+	/** Name of a tile-year's converted file in a store directory. */
+	public static String filename(String storeDirectory, int tileID, int year)
+	{
+		return storeDirectory + tileID + "_" + year + "_temperatures.bin";
+	}
+
+	/**
+	 * Convert a year of Daymet tmin and tmax files. The file is written beside the destination
+	 * and moved into place when complete, so a converted year is never seen half written.
+	 */
+	public static void convert(String min_filename, String max_filename, int year, String destination) throws IOException
+	{
+		Path dest = Paths.get(destination);
+		Path temp = Paths.get(destination + ".tmp");
+		NetcdfFile ncfile_min = NetcdfFile.open(min_filename);
+		try {
+			NetcdfFile ncfile_max = NetcdfFile.open(max_filename);
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				Variable tmin = ncfile_min.findVariable("tmin"), tmax = ncfile_max.findVariable("tmax");
+				int[] shape = tmin.getShape();
+				if (!Arrays.equals(shape, tmax.getShape()))
+					throw new IOException(min_filename + " and " + max_filename + " have different shapes");
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putInt(year).putInt(shape[0]).putInt(shape[1]).putInt(shape[2]);
+				header.putInt(0).putInt(0);
+				header.flip();
+				while (header.hasRemaining()) out.write(header);
+
+				/* A day at a time, so only one layer is decoded at once. */
+				ByteBuffer layer = ByteBuffer.allocateDirect(shape[1] * shape[2] * 4).order(ByteOrder.LITTLE_ENDIAN);
+				for (Variable var : new Variable[] { tmin, tmax })
+					for (int day = 0; day < shape[0]; day++)
+					{
+						float[] values = (float[]) var.read(new int[] { day, 0, 0 }, new int[] { 1, shape[1], shape[2] })
+								.get1DJavaArray(float.class);
+						layer.clear();
+						layer.asFloatBuffer().put(values);
+						while (layer.hasRemaining()) out.write(layer);
+					}
+				out.force(false);
+			} catch (InvalidRangeException e) {
+				throw new IllegalStateException(e);
+			} finally { ncfile_max.close(); }
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		} finally { ncfile_min.close(); }
+		Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void getMaxOnDate(LocalDate date, float[] dest){
+		FloatBuffer layer = max.duplicate();
+		layer.position(layerOffset(date));
+		layer.get(dest, 0, nCols * nRows);
+	}
+
+	@Override
+	public void getMinOnDate(LocalDate date, float[] dest){
+		FloatBuffer layer = min.duplicate();
+		layer.position(layerOffset(date));
+		layer.get(dest, 0, nCols * nRows);
+	}
+
+	@Override
+	public FloatBuffer getMaxLayer(LocalDate date){ return layer(max, date); }
+
+	@Override
+	public FloatBuffer getMinLayer(LocalDate date){ return layer(min, date); }
+
+	private FloatBuffer layer(FloatBuffer values, LocalDate date)
+	{
+		FloatBuffer layer = values.duplicate();
+		int offset = layerOffset(date);
+		layer.position(offset);
+		layer.limit(offset + nCols * nRows);
+		return layer.slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public int getNcols() { return nCols; }
+
+	@Override
+	public int getNrows() { return nRows; }
+
+	/** Number of days in the file, normally 365. */
+	public int getNdays() { return nDays; }
+
+	/** Drop the cube's mappings. Layers already handed out keep theirs until they are no longer reachable. */
+	@Override
+	public void close() { min = max = null; }
+
+	private int layerOffset(LocalDate date)
+	{
+		int dayIndex = (int)ChronoUnit.DAYS.between(startDate, date);
+		if (dayIndex < 0 || dayIndex >= nDays) throw new IndexOutOfBoundsException(date + " is not in the file");
+		return dayIndex * nCols * nRows;
+	}
+}
@@ -0,0 +1,73 @@
+package utils;
+
+import java.nio.FloatBuffer;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+/** A year of temperatures for a list of scattered points, as a grid of one row. <br>
+ *  Point i is column i, so the flat layers are indexed by point. Points are filled one
+ *  series at a time with {@link #setSeries}; days not filled are missing data.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCubePoints implements TemperatureCube {
+
+	private final LocalDate startDate;
+	private final int nPoints, nDays;
+
+	/* One layer per day, each indexed by point. */
+	private final float[] temperaturesMin_f, temperaturesMax_f;
+
+	public TemperatureCubePoints(int nPoints, int nDays, int year)
+	{
+		this.nPoints = nPoints;
+		this.nDays = nDays;
+		startDate = LocalDate.of(year, 1, 1);
+		temperaturesMin_f = new float[nDays * nPoints];
+		temperaturesMax_f = new float[nDays * nPoints];
+		Arrays.fill(temperaturesMin_f, (float) RegniereBentzMPBCalculator.MISSING_DATA);
+		Arrays.fill(temperaturesMax_f, (float) RegniereBentzMPBCalculator.MISSING_DATA);
+	}
+
+	/** Set one point's daily series, starting on January 1. */
+	public void setSeries(int point, float[] min, float[] max)
+	{
+		for (int day = 0; day < Math.min(nDays, min.length); day++)
+		{
+			temperaturesMin_f[day * nPoints + point] = min[day];
+			temperaturesMax_f[day * nPoints + point] = max[day];
+		}
+	}
+
+	@Override
+	public void getMaxOnDate(LocalDate date, float[] dest){
+		System.arraycopy(temperaturesMax_f, layerOffset(date), dest, 0, nPoints);
+	}
+
+	@Override
+	public void getMinOnDate(LocalDate date, float[] dest){
+		System.arraycopy(temperaturesMin_f, layerOffset(date), dest, 0, nPoints);
+	}
+
+	@Override
+	public FloatBuffer getMaxLayer(LocalDate date){
+		return FloatBuffer.wrap(temperaturesMax_f, layerOffset(date), nPoints).slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public FloatBuffer getMinLayer(LocalDate date){
+		return FloatBuffer.wrap(temperaturesMin_f, layerOffset(date), nPoints).slice().asReadOnlyBuffer();
+	}
+
+	@Override
+	public int getNcols() { return nPoints; }
+
+	@Override
+	public int getNrows() { return 1; }
+
+	private int layerOffset(LocalDate date)
+	{
+		int dayIndex = (int)ChronoUnit.DAYS.between(startDate, date);
+		return dayIndex * nPoints;
+	}
+}
@@ -0,0 +1,151 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Loads the temperature cubes for a run of years on a background thread,
+ *  keeping up to depth years read ahead of the one being simulated. <br>
+ *  Keeps track of how long the caller spent waiting for a year to be read
+ *  and how long it spent computing between years.
+ *
+ * @author michaelfrancenelson */
+public class TemperatureCubePrefetcher {
+
+	private final TemperatureCubeLoader loader;
+	private final ExecutorService reader;
+	private final ArrayDeque<PendingYear> queue = new ArrayDeque<PendingYear>();
+	private final int depth;
+	private final int lastYear;
+	private int nextYearToRead;
+
+	private long waitNanos, computeNanos, readNanos;
+	private long lastReturned;
+	private boolean computing;
+
+	/** A year submitted to the reader. Whichever of the reader and close() takes it first decides
+	 *  whether it is read: a year taken by close() before it starts is skipped. */
+	private static class PendingYear {
+		final AtomicBoolean taken = new AtomicBoolean();
+		Future<TemperatureCube> future;
+	}
+
+	/**
+	 * @param loader reads one year
+	 * @param firstYear first year next() will return
+	 * @param lastYear last year next() will return
+	 * @param depth how many years to read ahead of the one in use; memory holds at most depth + 2 years
+	 */
+	public TemperatureCubePrefetcher(TemperatureCubeLoader loader, int firstYear, int lastYear, int depth)
+	{
+		this.loader = loader;
+		this.lastYear = lastYear;
+		this.depth = Math.max(1, depth);
+		this.nextYearToRead = firstYear;
+		reader = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "temperature-prefetch");
+			t.setDaemon(true);
+			return t;
+		});
+		fill(this.depth);
+	}
+
+	/** @return the next year's temperatures, waiting for them to be read if they aren't yet. */
+	public TemperatureCube next() throws IOException
+	{
+		long start = System.nanoTime();
+		if (computing) computeNanos += start - lastReturned;
+
+		PendingYear head = queue.poll();
+		if (head == null) throw new IllegalStateException("No years left to read, the last was " + lastYear);
+		TemperatureCube cube;
+		try { cube = head.future.get(); }
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for temperatures", e);
+		} catch (ExecutionException e) {
+			close();
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+
+		/* Start reading the next year now that there is room in the queue. */
+		fill(depth);
+
+		lastReturned = System.nanoTime();
+		waitNanos += lastReturned - start;
+		computing = true;
+		return cube;
+	}
+
+	private void fill(int depth)
+	{
+		while (queue.size() < depth && nextYearToRead <= lastYear)
+		{
+			final int year = nextYearToRead++;
+			final PendingYear pending = new PendingYear();
+			pending.future = reader.submit(() -> {
+				if (!pending.taken.compareAndSet(false, true)) return null;
+				long start = System.nanoTime();
+				TemperatureCube cube = loader.load(year);
+				synchronized (this) { readNanos += System.nanoTime() - start; }
+				return cube;
+			});
+			queue.add(pending);
+		}
+	}
+
+	/** Stop reading ahead, dropping any years that haven't been returned. <br>
+	 *  A year being read is left to finish, without an interrupt that could land inside the
+	 *  NetCDF read, and then closed along with the years already read, which may hold files
+	 *  open or cache pins. */
+	public void close()
+	{
+		if (computing) computeNanos += System.nanoTime() - lastReturned;
+		computing = false;
+
+		/* Years not started yet never will be. Cancelling the futures wouldn't do: a future
+		 * that is running can be cancelled too, and the year it reads is then never closed. */
+		List<PendingYear> started = new ArrayList<PendingYear>();
+		for (PendingYear pending : queue)
+			if (!pending.taken.compareAndSet(false, true)) started.add(pending);
+		boolean interrupted = false;
+		for (PendingYear pending : started)
+		{
+			while (true)
+			{
+				try { pending.future.get().close(); break; }
+				catch (InterruptedException e) { interrupted = true; }
+				catch (Exception e) { /* The read failed, nothing to close. */ break; }
+			}
+		}
+		queue.clear();
+		reader.shutdown();
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Time the caller spent blocked waiting for a year to be read. */
+	public long getWaitNanos() { return waitNanos; }
+
+	/** Time the caller spent between receiving one year and asking for the next. */
+	public long getComputeNanos() { return computeNanos; }
+
+	/** Time the background thread spent reading. */
+	public synchronized long getReadNanos() { return readNanos; }
+
+	@Override
+	public String toString()
+	{
+		return String.format("read %.1f s, compute %.1f s, waiting for reads %.1f s",
+				getReadNanos() * 1e-9, computeNanos * 1e-9, waitNanos * 1e-9);
+	}
+}
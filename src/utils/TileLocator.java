@@ -0,0 +1,187 @@
+package utils;
+
+import java.io.IOException;
+
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+/** Finds the cell of a Daymet tile nearest a latitude and longitude. <br>
+ *  Uses the tile's own lat/lon arrays rather than its projection, so it works for any grid
+ *  the files describe. Cells are [col][row] as in {@link ActiveCells}, which is [y][x] in the files. <br>
+ *  The grid is regular, so a point's cell is first guessed from the corners of the tile and then
+ *  found by stepping to whichever neighbouring cell is nearer, a few steps instead of a scan of
+ *  every cell.
+ *
+ * @author michaelfrancenelson */
+public class TileLocator {
+
+	/** Daymet's cells are 1 km; used for the size of a cell when a tile has only one. */
+	static final double NOMINAL_CELL_DEGREES = 1 / 111.0;
+
+	private final int nCol, nRow;
+	private final double[] lat, lon;
+	private final ActiveCells cells;
+	private final double minLat, maxLat, minLon, maxLon;
+
+	/** The lat/lon arrays and mask of a tile, as read from its template file. */
+	private static class Grid {
+		ActiveCells cells;
+		double[] lat, lon;
+
+		static Grid read(String templateFile) throws IOException
+		{
+			Grid grid = new Grid();
+			NetcdfFile ncfile = NetcdfFile.open(templateFile);
+			try {
+				Variable tmin = ncfile.findVariable("tmin");
+				int[] shape = tmin.getShape();
+				int nCol = shape[1], nRow = shape[2];
+				shape[0] = 1;
+				grid.cells = DataCubeDaymet.templateCells(tmin.read(new int[] { 0, 0, 0 }, shape), nCol, nRow);
+				grid.lat = (double[]) ncfile.findVariable("lat").read().get1DJavaArray(double.class);
+				grid.lon = (double[]) ncfile.findVariable("lon").read().get1DJavaArray(double.class);
+			} catch (InvalidRangeException e) {
+				throw new IllegalStateException(e);
+			} finally { ncfile.close(); }
+			return grid;
+		}
+	}
+
+	/** @param templateFile a tmin file of the tile; its first day marks the cells holding data */
+	public TileLocator(String templateFile) throws IOException
+	{
+		this(Grid.read(templateFile));
+	}
+
+	/** A tile given by its mask and the latitude and longitude of each cell, indexed as the cells are. */
+	TileLocator(ActiveCells cells, double[] lat, double[] lon)
+	{
+		this(grid(cells, lat, lon));
+	}
+
+	private static Grid grid(ActiveCells cells, double[] lat, double[] lon)
+	{
+		Grid grid = new Grid();
+		grid.cells = cells; grid.lat = lat; grid.lon = lon;
+		return grid;
+	}
+
+	private TileLocator(Grid grid)
+	{
+		cells = grid.cells;
+		lat = grid.lat;
+		lon = grid.lon;
+		nCol = cells.getNcols();
+		nRow = cells.getNrows();
+
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int i = 0; i < lat.length; i++)
+		{
+			minLat = Math.min(minLat, lat[i]);
+			maxLat = Math.max(maxLat, lat[i]);
+			minLon = Math.min(minLon, lon[i]);
+			maxLon = Math.max(maxLon, lon[i]);
+		}
+
+		/* A quick check before the search. Points up to half a cell past the edge cells are still
+		 * on the tile, so the bounds leave two cells; a cell spans more degrees of longitude than of
+		 * latitude, more so towards the poles. */
+		double margin = 2 * Math.sqrt(spacing(0, 0, Math.cos(Math.toRadians(lat[0]))));
+		double lonMargin = margin / Math.cos(Math.toRadians(Math.min(89, Math.max(Math.abs(minLat), Math.abs(maxLat)))));
+		this.minLat = minLat - margin;
+		this.maxLat = maxLat + margin;
+		this.minLon = minLon - lonMargin;
+		this.maxLon = maxLon + lonMargin;
+	}
+
+	/** @return {col, row} of the nearest cell holding data, or null if the point is off the tile or in a cell without data */
+	public int[] locate(double latitude, double longitude)
+	{
+		if (latitude < minLat || latitude > maxLat || longitude < minLon || longitude > maxLon) return null;
+
+		/* Degrees of longitude shrink with latitude. */
+		double lonScale = Math.cos(Math.toRadians(latitude));
+		int[] cell = guess(latitude, longitude, lonScale);
+		int col = cell[0], row = cell[1];
+		double best = distance(latitude, longitude, col, row, lonScale);
+
+		/* Each step is to a strictly nearer cell, so this ends. */
+		boolean moved = true;
+		while (moved)
+		{
+			moved = false;
+			int bestCol = col, bestRow = row;
+			for (int c = Math.max(0, col - 1); c <= Math.min(nCol - 1, col + 1); c++)
+				for (int r = Math.max(0, row - 1); r <= Math.min(nRow - 1, row + 1); r++)
+				{
+					double d = distance(latitude, longitude, c, r, lonScale);
+					if (d < best) { best = d; bestCol = c; bestRow = r; moved = true; }
+				}
+			col = bestCol; row = bestRow;
+		}
+
+		/* Off the edge of the grid if further than a cell from the nearest one. */
+		if (best > spacing(col, row, lonScale)) return null;
+		if (!cells.isActive(col, row)) return null;
+		return new int[] { col, row };
+	}
+
+	/** The cell a point would be in if the grid were exactly affine, from its corner cells, clamped to the grid. */
+	private int[] guess(double latitude, double longitude, double lonScale)
+	{
+		int last = (nCol - 1) * nRow;
+		double aLat = lat[last] - lat[0], aLon = (lon[last] - lon[0]) * lonScale;
+		double bLat = lat[nRow - 1] - lat[0], bLon = (lon[nRow - 1] - lon[0]) * lonScale;
+		double pLat = latitude - lat[0], pLon = (longitude - lon[0]) * lonScale;
+
+		/* Solve p = s * a + t * b; a tile one cell wide along a dimension has no vector for it. */
+		double s = 0, t = 0;
+		double det = aLat * bLon - aLon * bLat;
+		if (nCol > 1 && nRow > 1 && det != 0)
+		{
+			s = (pLat * bLon - pLon * bLat) / det;
+			t = (aLat * pLon - aLon * pLat) / det;
+		}
+		else if (nCol > 1) s = (pLat * aLat + pLon * aLon) / (aLat * aLat + aLon * aLon);
+		else if (nRow > 1) t = (pLat * bLat + pLon * bLon) / (bLat * bLat + bLon * bLon);
+
+		int col = (int) Math.round(s * (nCol - 1)), row = (int) Math.round(t * (nRow - 1));
+		return new int[] { Math.max(0, Math.min(nCol - 1, col)), Math.max(0, Math.min(nRow - 1, row)) };
+	}
+
+	/** @return the squared distance from a cell to its nearer neighbour along the tile's dimensions */
+	private double spacing(int col, int row, double lonScale)
+	{
+		int i = col * nRow + row;
+		double spacing = Double.MAX_VALUE;
+		if (nRow > 1)
+		{
+			int neighbor = (row + 1 < nRow) ? i + 1 : i - 1;
+			spacing = Math.min(spacing, distance(lat[i], lon[i], lat[neighbor], lon[neighbor], lonScale));
+		}
+		if (nCol > 1)
+		{
+			int neighbor = (col + 1 < nCol) ? i + nRow : i - nRow;
+			spacing = Math.min(spacing, distance(lat[i], lon[i], lat[neighbor], lon[neighbor], lonScale));
+		}
+		return (spacing < Double.MAX_VALUE) ? spacing : NOMINAL_CELL_DEGREES * NOMINAL_CELL_DEGREES;
+	}
+
+	private double distance(double latitude, double longitude, int col, int row, double lonScale)
+	{
+		int i = col * nRow + row;
+		return distance(latitude, longitude, lat[i], lon[i], lonScale);
+	}
+
+	/** Squared distance, in degrees of latitude. */
+	private static double distance(double lat1, double lon1, double lat2, double lon2, double lonScale)
+	{
+		double dLat = lat1 - lat2, dLon = (lon1 - lon2) * lonScale;
+		return dLat * dLat + dLon * dLon;
+	}
+
+	public int getNcols() { return nCol; }
+
+	public int getNrows() { return nRow; }
+}